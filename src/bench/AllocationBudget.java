@@ -0,0 +1,292 @@
+package bench;
+
+import client.FrameParser;
+import client.GameView;
+import common.Card;
+import server.CommandDecoder;
+import server.GameState;
+import server.MessageFormatter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks how many bytes each game action allocates against a recorded budget, using the
+ * JVM's per-thread allocation counter. Every action is run until it is JIT-compiled before
+ * it is measured, since escape analysis removes many allocations from compiled code.
+ * Exits with status 1 when an action goes over its budget, so it can guard a build.
+ *
+ * Usage: AllocationBudget [--seed seed]
+ */
+public class AllocationBudget {
+    // Game states prepared per measurement, so setup allocations stay outside the measured loop
+    private static final int STATES = 2000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 5;
+
+    // Recorded budgets in bytes per operation; raise one only together with the change that needs it
+    private static final long MOVE_BUDGET = 16;
+    private static final long PASS_BUDGET = 16;
+    private static final long ROUND_RESET_BUDGET = 160;
+    private static final long FRAME_RENDER_BUDGET = 40000;
+    private static final long FRAME_PARSE_BUDGET = 3000;
+    private static final long COMMAND_DECODE_BUDGET = 0;
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final long seed;
+
+    public AllocationBudget(long seed) {
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        this.seed = seed;
+    }
+
+    /**
+     * A measured game action
+     */
+    private interface Action {
+        /**
+         * Prepare the inputs, which may allocate freely
+         */
+        void setUp();
+
+        /**
+         * Run the action on every prepared input
+         * @return the number of operations performed
+         */
+        int run();
+    }
+
+    /**
+     * Measure every action and print a table of bytes per operation against the budgets
+     * @return true if every action is within its budget
+     */
+    public boolean check() {
+        boolean withinBudget = true;
+        System.out.println(String.format("%-16s %12s %12s", "Action", "Bytes/op", "Budget"));
+
+        withinBudget &= report("move", measure(new MoveAction()), MOVE_BUDGET);
+        withinBudget &= report("pass", measure(new PassAction(false)), PASS_BUDGET);
+        withinBudget &= report("round reset", measure(new PassAction(true)), ROUND_RESET_BUDGET);
+        withinBudget &= report("frame render", measure(new RenderAction()), FRAME_RENDER_BUDGET);
+        withinBudget &= report("frame parse", measure(new ParseAction()), FRAME_PARSE_BUDGET);
+        withinBudget &= report("command decode", measure(new DecodeAction()), COMMAND_DECODE_BUDGET);
+        return withinBudget;
+    }
+
+    private boolean report(String name, long bytesPerOperation, long budget) {
+        boolean ok = bytesPerOperation <= budget;
+        System.out.println(String.format("%-16s %12d %12d%s", name, bytesPerOperation, budget, ok ? "" : "  OVER BUDGET"));
+        return ok;
+    }
+
+    /**
+     * Run an action until it is compiled, then measure it
+     * @return the lowest bytes per operation seen over the measured rounds
+     */
+    private long measure(Action action) {
+        long threadId = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            action.setUp();
+            long before = threads.getThreadAllocatedBytes(threadId);
+            int operations = action.run();
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+            if (round >= WARMUP_ROUNDS && operations > 0) {
+                // Reading the counter allocates a little itself, which rounds away over many operations
+                best = Math.min(best, allocated / operations);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fresh games at the start of their first round
+     */
+    private List<GameState> newGames(Random random) {
+        List<GameState> games = new ArrayList<>(STATES);
+        for (int i = 0; i < STATES; i++) {
+            games.add(new GameState(new Random(random.nextLong())));
+        }
+        return games;
+    }
+
+    private class MoveAction implements Action {
+        private final Random random = new Random(seed);
+        private List<GameState> games;
+        private final int[] moves = new int[STATES];
+
+        @Override
+        public void setUp() {
+            games = newGames(random);
+            for (int i = 0; i < STATES; i++) {
+                moves[i] = findMove(games.get(i));
+            }
+        }
+
+        @Override
+        public int run() {
+            int operations = 0;
+            for (int i = 0; i < STATES; i++) {
+                if (moves[i] >= 0) {
+                    GameState game = games.get(i);
+                    game.makeMove(game.getCurrentPlayer(), moves[i] / 6, moves[i] % 6);
+                    operations++;
+                }
+            }
+            return operations;
+        }
+    }
+
+    /**
+     * A pass that leaves the round running, or the second pass of a round, which deals a new one
+     */
+    private class PassAction implements Action {
+        private final Random random = new Random(seed);
+        private final boolean endsRound;
+        private List<GameState> games;
+
+        PassAction(boolean endsRound) {
+            this.endsRound = endsRound;
+        }
+
+        @Override
+        public void setUp() {
+            games = newGames(random);
+            if (endsRound) {
+                for (GameState game : games) {
+                    game.pass(game.getCurrentPlayer());
+                }
+            }
+        }
+
+        @Override
+        public int run() {
+            for (GameState game : games) {
+                game.pass(game.getCurrentPlayer());
+            }
+            return STATES;
+        }
+    }
+
+    private class RenderAction implements Action {
+        private final Random random = new Random(seed);
+        private List<GameState> games;
+
+        @Override
+        public void setUp() {
+            games = newGames(random);
+        }
+
+        @Override
+        public int run() {
+            for (int i = 0; i < STATES; i++) {
+                MessageFormatter.generateMessageFrame(games.get(i), (i % 2) == 0);
+            }
+            return STATES;
+        }
+    }
+
+    private class ParseAction implements Action {
+        private final Random random = new Random(seed);
+        private final String[][] frames = new String[STATES][];
+
+        @Override
+        public void setUp() {
+            List<GameState> games = newGames(random);
+            for (int i = 0; i < STATES; i++) {
+                String frame = MessageFormatter.generateMessageFrame(games.get(i), (i % 2) == 0);
+                frames[i] = frame.split("\n");
+            }
+        }
+
+        @Override
+        public int run() {
+            int parsed = 0;
+            for (String[] lines : frames) {
+                GameView view = FrameParser.parse(lines);
+                if (view != null) {
+                    parsed++;
+                }
+            }
+            return parsed;
+        }
+    }
+
+    private class DecodeAction implements Action {
+        private final byte[] commands;
+        private final ByteArrayInputStream input;
+        private final CommandDecoder decoder = new CommandDecoder();
+
+        DecodeAction() {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < STATES; i++) {
+                text.append(i % 3 == 0 ? "PS" : "" + (char) ('A' + i % 6) + (char) ('a' + (i / 6) % 6)).append("\r\n");
+            }
+            commands = text.toString().getBytes(StandardCharsets.US_ASCII);
+            input = new ByteArrayInputStream(commands);
+        }
+
+        @Override
+        public void setUp() {
+            input.reset();
+        }
+
+        @Override
+        public int run() {
+            int decoded = 0;
+            try {
+                int command;
+                while ((command = decoder.read(input)) != CommandDecoder.END_OF_STREAM) {
+                    if (CommandDecoder.type(command) != CommandDecoder.INVALID) {
+                        decoded++;
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return decoded;
+        }
+    }
+
+    /**
+     * Find a valid attack for the player to move
+     * @return the move as fromColumn * 6 + toColumn, or -1 if there is none
+     */
+    private static int findMove(GameState game) {
+        int player = game.getCurrentPlayer();
+        List<Card> mine = player == 0 ? game.getPlayer1Hand() : game.getPlayer2Hand();
+        List<Card> theirs = player == 0 ? game.getPlayer2Hand() : game.getPlayer1Hand();
+
+        for (int from = 0; from < 6; from++) {
+            for (int to = 0; to < 6; to++) {
+                if (mine.get(from) != null && theirs.get(to) != null && mine.get(from).canDefeat(theirs.get(to))) {
+                    return from * 6 + to;
+                }
+            }
+        }
+        return -1;
+    }
+
+    public static void main(String[] args) {
+        long seed = 1;
+        if (args.length == 2 && args[0].equals("--seed")) {
+            seed = Long.parseLong(args[1]);
+        }
+
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).isThreadAllocatedMemorySupported()) {
+            System.err.println("Thread allocation counters are not available on this JVM");
+            System.exit(2);
+        }
+
+        boolean ok = new AllocationBudget(seed).check();
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,73 @@
+package bench;
+
+import server.RatingStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Checks that the rating store keeps every result across a table resize. One regular plays
+ * a stream of new players, so the table grows while a result is being applied, with the
+ * regular already in the table and the opponent not yet in it. The store is then reopened
+ * from its file and every record is compared with the games played.
+ * Exits with status 1 when a record is wrong, so it can guard a build.
+ *
+ * Usage: RatingStoreCheck [--games n]
+ */
+public class RatingStoreCheck {
+    private static final String REGULAR = "regular";
+
+    public static void main(String[] args) throws IOException {
+        int games = 10000; // enough for the table to grow from 4096 slots twice
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--games")) {
+                games = Integer.parseInt(args[i + 1]);
+            }
+        }
+
+        Path directory = Files.createTempDirectory("ratings");
+        Path file = directory.resolve("ratings.dat");
+        try {
+            RatingStore store = new RatingStore(file);
+            for (int i = 0; i < games; i++) {
+                store.recordResult(REGULAR, "newcomer" + i, 0);
+            }
+            store.close();
+
+            String problem = verify(file, games);
+            System.out.println(games + " games: " + (problem != null ? problem : "every record is correct"));
+            System.exit(problem != null ? 1 : 0);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * @return a description of the first wrong record, or null
+     */
+    private static String verify(Path file, int games) throws IOException {
+        RatingStore store = new RatingStore(file);
+        try {
+            if (store.getPlayerCount() != games + 1) {
+                return "the store has " + store.getPlayerCount() + " players, expected " + (games + 1);
+            }
+            RatingStore.PlayerRating regular = store.getPlayer(REGULAR);
+            if (regular == null || regular.getWins() != games || regular.getLosses() != 0) {
+                return REGULAR + " has " + (regular == null ? "no record" : regular.getWins() + " wins and "
+                        + regular.getLosses() + " losses") + ", expected " + games + " wins";
+            }
+            for (int i = 0; i < games; i++) {
+                RatingStore.PlayerRating newcomer = store.getPlayer("newcomer" + i);
+                if (newcomer == null || newcomer.getLosses() != 1 || newcomer.getWins() != 0) {
+                    return "newcomer" + i + " has " + (newcomer == null ? "no record" : newcomer.getWins()
+                            + " wins and " + newcomer.getLosses() + " losses") + ", expected 1 loss";
+                }
+            }
+            return null;
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package bot;
+
+import common.Card;
+import server.GameState;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Never spends its own arrows. Scores when it can, otherwise removes the opponent's
+ * arrows, and passes rather than make any other move.
+ */
+public class ArrowHoardingStrategy implements Strategy {
+    private final int[] moves = new int[36];
+
+    @Override
+    public String getName() {
+        return "arrow-hoarding";
+    }
+
+    @Override
+    public int chooseMove(GameState state, int playerIndex, Random random) {
+        int count = Strategy.legalMoves(state, playerIndex, moves);
+
+        List<Card> attackerHand = (playerIndex == 0) ? state.getPlayer1Hand() : state.getPlayer2Hand();
+        List<Card> defenderHand = (playerIndex == 0) ? state.getPlayer2Hand() : state.getPlayer1Hand();
+
+        int best = PASS;
+        int bestRank = 0;
+        int ties = 0;
+        for (int i = 0; i < count; i++) {
+            Card attacker = attackerHand.get(Strategy.fromColumn(moves[i]));
+            Card defender = defenderHand.get(Strategy.toColumn(moves[i]));
+            if (attacker.getType() == Card.Type.ARROW) {
+                continue;
+            }
+
+            int rank = defender.getType() == Card.Type.ARROW ? 1 : 2;
+            if (rank > bestRank) {
+                best = moves[i];
+                bestRank = rank;
+                ties = 1;
+            } else if (rank == bestRank && random.nextInt(++ties) == 0) {
+                // Reservoir sampling keeps the choice uniform among equally ranked moves
+                best = moves[i];
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,42 @@
+package bot;
+
+import common.Card;
+import server.GameState;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Takes a scoring move whenever there is one, otherwise any valid move
+ */
+public class GreedyPointsStrategy implements Strategy {
+    private final int[] moves = new int[36];
+
+    @Override
+    public String getName() {
+        return "greedy-points";
+    }
+
+    @Override
+    public int chooseMove(GameState state, int playerIndex, Random random) {
+        int count = Strategy.legalMoves(state, playerIndex, moves);
+        if (count == 0) {
+            return PASS;
+        }
+
+        List<Card> attackerHand = (playerIndex == 0) ? state.getPlayer1Hand() : state.getPlayer2Hand();
+        List<Card> defenderHand = (playerIndex == 0) ? state.getPlayer2Hand() : state.getPlayer1Hand();
+
+        // Keep only the moves that earn points, if any
+        int scoring = 0;
+        for (int i = 0; i < count; i++) {
+            Card attacker = attackerHand.get(Strategy.fromColumn(moves[i]));
+            Card defender = defenderHand.get(Strategy.toColumn(moves[i]));
+            if (defender.earnsPoints(attacker)) {
+                moves[scoring++] = moves[i];
+            }
+        }
+
+        return scoring > 0 ? moves[random.nextInt(scoring)] : moves[random.nextInt(count)];
+    }
+}
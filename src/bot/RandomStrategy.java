@@ -0,0 +1,23 @@
+package bot;
+
+import server.GameState;
+
+import java.util.Random;
+
+/**
+ * Plays a uniformly random valid move, passing only when there is none
+ */
+public class RandomStrategy implements Strategy {
+    private final int[] moves = new int[36];
+
+    @Override
+    public String getName() {
+        return "random";
+    }
+
+    @Override
+    public int chooseMove(GameState state, int playerIndex, Random random) {
+        int count = Strategy.legalMoves(state, playerIndex, moves);
+        return count == 0 ? PASS : moves[random.nextInt(count)];
+    }
+}
@@ -0,0 +1,196 @@
+package bot;
+
+import common.Card;
+import common.Constants;
+import server.GameState;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Looks ahead a fixed number of plies with alpha-beta search over the current round.
+ * Both hands are visible, so the only unknown is the next deal, which ends the search.
+ */
+public class SearchStrategy implements Strategy {
+    private static final int WIN = 1_000_000;
+    private static final Card[] CARDS = {
+            new Card(Card.Type.AXE), new Card(Card.Type.HAMMER), new Card(Card.Type.SWORD), new Card(Card.Type.ARROW)
+    };
+
+    private final int depth;
+
+    // Search position, changed in place and undone after each move
+    private final int[][] hands = new int[2][6]; // card type ordinal, or -1 for an empty slot
+    private final int[] scores = new int[2];
+    private final boolean[] passed = new boolean[2];
+    private final int[][] moveBuffers;
+
+    /**
+     * @param depth plies to look ahead, at least 1
+     */
+    public SearchStrategy(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Search depth must be at least 1: " + depth);
+        }
+        this.depth = depth;
+        this.moveBuffers = new int[depth + 1][37];
+    }
+
+    @Override
+    public String getName() {
+        return "search-" + depth;
+    }
+
+    @Override
+    public int chooseMove(GameState state, int playerIndex, Random random) {
+        load(state);
+
+        int[] moves = moveBuffers[0];
+        int count = generateMoves(playerIndex, moves);
+        int best = PASS;
+        int bestValue = Integer.MIN_VALUE;
+        int ties = 0;
+
+        for (int i = 0; i < count; i++) {
+            int value = -searchMove(playerIndex, moves[i], depth - 1, -WIN - 1, WIN + 1, 1);
+            if (value > bestValue) {
+                best = moves[i];
+                bestValue = value;
+                ties = 1;
+            } else if (value == bestValue && random.nextInt(++ties) == 0) {
+                best = moves[i];
+            }
+        }
+        return best;
+    }
+
+    private void load(GameState state) {
+        loadHand(state.getPlayer1Hand(), hands[0]);
+        loadHand(state.getPlayer2Hand(), hands[1]);
+        scores[0] = state.getPlayer1Score();
+        scores[1] = state.getPlayer2Score();
+        passed[0] = state.hasPlayer1Passed();
+        passed[1] = state.hasPlayer2Passed();
+    }
+
+    private static void loadHand(List<Card> hand, int[] slots) {
+        for (int i = 0; i < 6; i++) {
+            Card card = hand.get(i);
+            slots[i] = card == null ? -1 : card.getType().ordinal();
+        }
+    }
+
+    /**
+     * Write PASS followed by every valid move for a player
+     */
+    private int generateMoves(int player, int[] moves) {
+        int[] mine = hands[player];
+        int[] theirs = hands[1 - player];
+
+        int count = 0;
+        moves[count++] = PASS;
+        for (int from = 0; from < 6; from++) {
+            if (mine[from] < 0) {
+                continue;
+            }
+            for (int to = 0; to < 6; to++) {
+                if (theirs[to] >= 0 && CARDS[mine[from]].canDefeat(CARDS[theirs[to]])) {
+                    moves[count++] = Strategy.move(from, to);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Apply a move, search the resulting position and undo the move
+     * @return the value of the resulting position for the opponent of the player who moved
+     */
+    private int searchMove(int player, int move, int remaining, int alpha, int beta, int ply) {
+        int opponent = 1 - player;
+
+        if (move == PASS) {
+            if (passed[opponent]) {
+                // Both players passed: the round ends and the next deal is unknown
+                return -evaluate(player);
+            }
+            boolean wasPassed = passed[player];
+            passed[player] = true;
+            int value = search(opponent, remaining, alpha, beta, ply);
+            passed[player] = wasPassed;
+            return value;
+        }
+
+        int from = Strategy.fromColumn(move);
+        int to = Strategy.toColumn(move);
+        int attacker = hands[player][from];
+        int defender = hands[opponent][to];
+        boolean scores = CARDS[defender].earnsPoints(CARDS[attacker]);
+        boolean wasPassed = passed[player];
+
+        hands[opponent][to] = -1;
+        passed[player] = false;
+        if (scores) {
+            this.scores[player]++;
+        }
+
+        int value;
+        if (this.scores[player] >= Constants.WINNING_SCORE) {
+            // Prefer quicker wins
+            value = -(WIN - ply);
+        } else {
+            value = search(opponent, remaining, alpha, beta, ply);
+        }
+
+        if (scores) {
+            this.scores[player]--;
+        }
+        passed[player] = wasPassed;
+        hands[opponent][to] = defender;
+        return value;
+    }
+
+    /**
+     * Negamax search from the point of view of the player to move
+     */
+    private int search(int player, int remaining, int alpha, int beta, int ply) {
+        if (remaining == 0) {
+            return evaluate(player);
+        }
+
+        int[] moves = moveBuffers[ply];
+        int count = generateMoves(player, moves);
+        int best = -WIN - 1;
+
+        for (int i = 0; i < count; i++) {
+            int value = -searchMove(player, moves[i], remaining - 1, -beta, -alpha, ply + 1);
+            if (value > best) {
+                best = value;
+            }
+            if (best > alpha) {
+                alpha = best;
+            }
+            if (alpha >= beta) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Score difference, with remaining cards as a tie-breaker
+     */
+    private int evaluate(int player) {
+        int opponent = 1 - player;
+        int cards = 0;
+        for (int i = 0; i < 6; i++) {
+            if (hands[player][i] >= 0) {
+                cards++;
+            }
+            if (hands[opponent][i] >= 0) {
+                cards--;
+            }
+        }
+        return 10 * (scores[player] - scores[opponent]) + cards;
+    }
+}
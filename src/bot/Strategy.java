@@ -0,0 +1,66 @@
+package bot;
+
+import common.Card;
+import server.GameState;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A move policy that plays one seat of a game.
+ * Moves are encoded as ints: PASS, or fromColumn * 6 + toColumn.
+ */
+public interface Strategy {
+    int PASS = -1;
+
+    /**
+     * Get the name shown in tournament tables
+     */
+    String getName();
+
+    /**
+     * Choose a move for the player whose turn it is
+     * @param state the current game state, which must not be modified
+     * @param playerIndex 0 for player1, 1 for player2
+     * @param random the game's random source, so seeded games are reproducible
+     * @return PASS or an encoded move
+     */
+    int chooseMove(GameState state, int playerIndex, Random random);
+
+    static int move(int fromColumn, int toColumn) {
+        return fromColumn * 6 + toColumn;
+    }
+
+    static int fromColumn(int move) {
+        return move / 6;
+    }
+
+    static int toColumn(int move) {
+        return move % 6;
+    }
+
+    /**
+     * Collect every valid move for a player
+     * @param moves receives the encoded moves, must hold at least 36 entries
+     * @return the number of moves written
+     */
+    static int legalMoves(GameState state, int playerIndex, int[] moves) {
+        List<Card> attackerHand = (playerIndex == 0) ? state.getPlayer1Hand() : state.getPlayer2Hand();
+        List<Card> defenderHand = (playerIndex == 0) ? state.getPlayer2Hand() : state.getPlayer1Hand();
+
+        int count = 0;
+        for (int from = 0; from < 6; from++) {
+            Card attacker = attackerHand.get(from);
+            if (attacker == null) {
+                continue;
+            }
+            for (int to = 0; to < 6; to++) {
+                Card defender = defenderHand.get(to);
+                if (defender != null && attacker.canDefeat(defender)) {
+                    moves[count++] = move(from, to);
+                }
+            }
+        }
+        return count;
+    }
+}
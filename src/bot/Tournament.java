@@ -0,0 +1,310 @@
+package bot;
+
+import common.Constants;
+import server.GameState;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Plays bot strategies against each other under the real GameState rules.
+ * Every deal is played twice with the seats swapped, so the random starting player
+ * and a lucky deal favour neither side. Games are spread over all cores.
+ */
+public class Tournament {
+    // Games per task, large enough to amortise scheduling
+    private static final int BATCH_SIZE = 2048;
+
+    private final List<Supplier<Strategy>> entrants;
+    private final String[] names;
+    private final int gamesPerPairing;
+    private final long seed;
+    private final ExecutorService threadPool;
+
+    // results[a][b] = {wins for a, draws, losses for a} over all games between a and b
+    private final long[][][] results;
+
+    public Tournament(List<Supplier<Strategy>> entrants, int gamesPerPairing, long seed, int threads) {
+        this.entrants = entrants;
+        this.gamesPerPairing = gamesPerPairing + (gamesPerPairing % 2); // whole seat-swapped pairs
+        this.seed = seed;
+        this.threadPool = Executors.newFixedThreadPool(threads);
+        this.results = new long[entrants.size()][entrants.size()][3];
+
+        this.names = new String[entrants.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = entrants.get(i).get().getName();
+        }
+    }
+
+    /**
+     * Play every entrant against every other entrant
+     */
+    public void runRoundRobin() throws InterruptedException {
+        List<int[]> pairings = new ArrayList<>();
+        for (int a = 0; a < entrants.size(); a++) {
+            for (int b = a + 1; b < entrants.size(); b++) {
+                pairings.add(new int[] {a, b});
+            }
+        }
+        playPairings(pairings);
+    }
+
+    /**
+     * Play a Swiss system: each round pairs entrants with similar scores that have not met yet
+     */
+    public void runSwiss(int rounds) throws InterruptedException {
+        Set<Long> played = new HashSet<>();
+
+        for (int round = 0; round < rounds; round++) {
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < entrants.size(); i++) {
+                order.add(i);
+            }
+            order.sort(Comparator.comparingDouble((Integer i) -> -score(i)));
+
+            List<int[]> pairings = new ArrayList<>();
+            while (order.size() > 1) {
+                int a = order.remove(0);
+                int partner = 0;
+                // Take the closest-ranked opponent not met before, or the closest one if all were met
+                for (int j = 0; j < order.size(); j++) {
+                    if (!played.contains(pairKey(a, order.get(j)))) {
+                        partner = j;
+                        break;
+                    }
+                }
+                int b = order.remove(partner);
+                played.add(pairKey(a, b));
+                pairings.add(new int[] {a, b});
+            }
+            // With an odd number of entrants the lowest ranked one sits the round out
+
+            playPairings(pairings);
+        }
+    }
+
+    public void shutdown() {
+        threadPool.shutdown();
+    }
+
+    private static long pairKey(int a, int b) {
+        return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+    /**
+     * Play all games of the given pairings in parallel and add them to the results
+     */
+    private void playPairings(List<int[]> pairings) throws InterruptedException {
+        List<Callable<long[]>> tasks = new ArrayList<>();
+        List<int[]> taskPairings = new ArrayList<>();
+
+        for (int[] pairing : pairings) {
+            for (int start = 0; start < gamesPerPairing; start += BATCH_SIZE) {
+                int first = start;
+                int count = Math.min(BATCH_SIZE, gamesPerPairing - start);
+                tasks.add(() -> playBatch(pairing[0], pairing[1], first, count));
+                taskPairings.add(pairing);
+            }
+        }
+
+        List<Future<long[]>> futures = threadPool.invokeAll(tasks);
+        for (int i = 0; i < futures.size(); i++) {
+            long[] batch;
+            try {
+                batch = futures.get(i).get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Tournament game failed", e.getCause());
+            }
+
+            int a = taskPairings.get(i)[0];
+            int b = taskPairings.get(i)[1];
+            for (int k = 0; k < 3; k++) {
+                results[a][b][k] += batch[k];
+                results[b][a][2 - k] += batch[k];
+            }
+        }
+    }
+
+    /**
+     * Play a batch of games between two entrants
+     * @return {wins for a, draws, losses for a}
+     */
+    private long[] playBatch(int a, int b, int firstGame, int count) {
+        Strategy strategyA = entrants.get(a).get();
+        Strategy strategyB = entrants.get(b).get();
+        long[] outcome = new long[3];
+
+        for (int game = firstGame; game < firstGame + count; game++) {
+            // Both games of a seat-swapped pair use the same deal
+            long dealSeed = mix(seed, pairKey(a, b), game / 2);
+            boolean aFirstSeat = (game % 2) == 0;
+
+            int winner = aFirstSeat
+                    ? playGame(strategyA, strategyB, dealSeed)
+                    : playGame(strategyB, strategyA, dealSeed);
+
+            if (winner < 0) {
+                outcome[1]++;
+            } else if ((winner == 0) == aFirstSeat) {
+                outcome[0]++;
+            } else {
+                outcome[2]++;
+            }
+        }
+        return outcome;
+    }
+
+    /**
+     * Play one game to the end
+     * @return the winning seat, or -1 for a draw
+     */
+    public static int playGame(Strategy player1, Strategy player2, long seed) {
+        // Deals and strategy choices use separate sources, so both games of a seat-swapped pair get every same deal
+        GameState state = new GameState(new Random(seed));
+        Random random = new Random(~seed);
+        Strategy[] seats = {player1, player2};
+
+        while (!state.isGameOver()) {
+            int player = state.getCurrentPlayer();
+            int move = seats[player].chooseMove(state, player, random);
+
+            // An invalid move forfeits the turn, so a broken strategy cannot stall the game
+            if (move == Strategy.PASS
+                    || !state.makeMove(player, Strategy.fromColumn(move), Strategy.toColumn(move))) {
+                state.pass(player);
+            }
+        }
+
+        // Only reaching the winning score wins; running out of rounds is a draw
+        if (state.getPlayer1Score() >= Constants.WINNING_SCORE) {
+            return 0;
+        } else if (state.getPlayer2Score() >= Constants.WINNING_SCORE) {
+            return 1;
+        }
+        return -1;
+    }
+
+    private static long mix(long seed, long pair, long game) {
+        long h = seed ^ (pair * 0x9E3779B97F4A7C15L) ^ (game * 0xC2B2AE3D27D4EB4FL);
+        h ^= (h >>> 33);
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= (h >>> 33);
+        return h;
+    }
+
+    /**
+     * Points per game for an entrant: 1 for a win, 0.5 for a draw
+     */
+    private double score(int entrant) {
+        long[] total = totals(entrant);
+        long games = total[0] + total[1] + total[2];
+        return games == 0 ? 0.0 : (total[0] + 0.5 * total[1]) / games;
+    }
+
+    private long[] totals(int entrant) {
+        long[] total = new long[3];
+        for (int opponent = 0; opponent < entrants.size(); opponent++) {
+            for (int k = 0; k < 3; k++) {
+                total[k] += results[entrant][opponent][k];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Build the ranked table with a 95% confidence interval on each entrant's score
+     */
+    public String formatTable() {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < entrants.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingDouble((Integer i) -> -score(i)));
+
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-4s %-16s %10s %10s %10s %10s %8s %8s%n",
+                "Rank", "Strategy", "Games", "Wins", "Draws", "Losses", "Score", "+/-95%"));
+
+        int rank = 1;
+        for (int entrant : order) {
+            long[] total = totals(entrant);
+            long games = total[0] + total[1] + total[2];
+            double mean = score(entrant);
+
+            // Per-game scores are 1, 0.5 or 0; use their sample variance for the interval
+            double margin = 0.0;
+            if (games > 1) {
+                double sumSquares = total[0] + 0.25 * total[1];
+                double variance = (sumSquares - games * mean * mean) / (games - 1);
+                margin = 1.96 * Math.sqrt(Math.max(0.0, variance) / games);
+            }
+
+            table.append(String.format("%-4d %-16s %10d %10d %10d %10d %8.4f %8.4f%n",
+                    rank++, names[entrant], games, total[0], total[1], total[2], mean, margin));
+        }
+        return table.toString();
+    }
+
+    /**
+     * Usage: Tournament [--games perPairing] [--swiss rounds] [--seed seed] [--depth searchDepth] [--threads n]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int games = 10000;
+        int swissRounds = 0;
+        long seed = 1;
+        int depth = 2;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--games":
+                    games = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--swiss":
+                    swissRounds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--depth":
+                    depth = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+            }
+        }
+
+        if (depth < 1) {
+            System.err.println("Invalid search depth: " + depth + " (must be at least 1)");
+            System.exit(1);
+        }
+
+        int searchDepth = depth;
+        List<Supplier<Strategy>> entrants = Arrays.asList(
+                RandomStrategy::new,
+                GreedyPointsStrategy::new,
+                ArrowHoardingStrategy::new,
+                () -> new SearchStrategy(searchDepth));
+
+        Tournament tournament = new Tournament(entrants, games, seed, threads);
+        long start = System.nanoTime();
+        try {
+            if (swissRounds > 0) {
+                tournament.runSwiss(swissRounds);
+            } else {
+                tournament.runRoundRobin();
+            }
+        } finally {
+            tournament.shutdown();
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.print(tournament.formatTable());
+        System.out.println("Played in " + elapsedMs + " ms on " + threads + " threads");
+    }
+}
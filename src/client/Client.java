@@ -1,14 +1,18 @@
 package client;
 
+import common.Card;
+import common.Constants;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * CoExistence GUI Client
@@ -17,11 +21,13 @@ import java.net.Socket;
 public class Client extends JFrame {
     // Constants for thhe game frame size and default network settings.
     private static final int DEFAULT_PORT = 35754;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
 
-    private Socket socket; //socket connection to the server
-    private BufferedReader in;  //to receive data from the server
-    private PrintWriter out;    //send commands to the server
+    private volatile GameClient gameClient; //connection to the server
     private boolean connected = false;  //if connected to the server ror not
+    private boolean connecting = false; //a connection attempt is in progress and can be cancelled
+    private final int connectTimeoutMs; //how long a connection attempt may take
+    private Timer connectProgressTimer; //updates the status label while connecting
 
 
     private JPanel mainPanel;   //server.Main container
@@ -39,6 +45,16 @@ public class Client extends JFrame {
     private JTextField serverField;     //input field for server address
     private JTextField portField;   //port
     private JButton connectButton;  //button to connect
+    private JLabel[] opponentCardLabels = new JLabel[6];   //persistent labels inside the opponent card slots
+    private JLabel[] myCardLabels = new JLabel[6];     //persistent labels inside our card slots
+    private JLabel latencyOverlay;  //recent latency percentiles, toggled with F3
+    private Timer latencyOverlayTimer;  //refreshes the overlay while it is shown
+
+    // Round trip, parse, EDT wait and UI update timings, only touched on the EDT
+    private final LatencyRecorder latency = new LatencyRecorder(1000);
+
+    // Colour for opponent cards that can be attacked
+    private static final Color ATTACKABLE_COLOR = new Color(255, 200, 200);
 
     // Game state
     private boolean myTurn = false; //true if our turn false if opponent turn
@@ -50,8 +66,30 @@ public class Client extends JFrame {
     private Card[] opponentCards = new Card[6]; //opponent cards
     private int selectedColumn = -1;    //current selected card (-1 for holder)
 
+    // Single-slot mailbox between the network thread and the EDT: newest frame wins
+    private final AtomicReference<GameView> latestState = new AtomicReference<>();
+    private final AtomicBoolean updateScheduled = new AtomicBoolean(false);
+
+    // Last rendered state, compared against on each update so only changed components are touched
+    private Card.Type[] shownMyCards = new Card.Type[6];
+    private Card.Type[] shownOpponentCards = new Card.Type[6];
+    private int shownSelectedColumn = -1;
+    private int shownMyScore = -1;
+    private int shownOpponentScore = -1;
+    private int shownRoundNumber = -1;
+    private boolean shownCanInteract = false;
+    private int highlightedButtonColumn = -1;
+
     public Client() {
+        this(DEFAULT_CONNECT_TIMEOUT_MS);
+    }
+
+    /**
+     * @param connectTimeoutMs how long a connection attempt may take before it is given up
+     */
+    public Client(int connectTimeoutMs) {
         super("CoExistence Client");
+        this.connectTimeoutMs = connectTimeoutMs;
         initializeUI();
         setupListeners();
     }
@@ -95,20 +133,16 @@ public class Client extends JFrame {
         // Opponent's deck
         opponentDeckPanel = new JPanel(new GridLayout(1, 6));
         for (int i = 0; i < 6; i++) {
-            JPanel cardSlot = new JPanel();
-            cardSlot.setBackground(Color.LIGHT_GRAY);
-            cardSlot.setBorder(BorderFactory.createLineBorder(Color.BLACK));
-            opponentDeckPanel.add(cardSlot);
+            opponentCardLabels[i] = new JLabel("", SwingConstants.CENTER);
+            opponentDeckPanel.add(createCardSlot(opponentCardLabels[i]));
         }
         cardsPanel.add(opponentDeckPanel);
 
         // Our deck
         myDeckPanel = new JPanel(new GridLayout(1, 6));
         for (int i = 0; i < 6; i++) {
-            JPanel cardSlot = new JPanel();
-            cardSlot.setBackground(Color.LIGHT_GRAY);
-            cardSlot.setBorder(BorderFactory.createLineBorder(Color.BLACK));
-            myDeckPanel.add(cardSlot);
+            myCardLabels[i] = new JLabel("", SwingConstants.CENTER);
+            myDeckPanel.add(createCardSlot(myCardLabels[i]));
         }
         cardsPanel.add(myDeckPanel);
 
@@ -168,16 +202,34 @@ public class Client extends JFrame {
         scrollPane.setPreferredSize(new Dimension(500, 30));
         statusPanel.add(scrollPane, BorderLayout.WEST);
 
+        // Latency overlay, hidden until F3 is pressed
+        latencyOverlay = new JLabel();
+        latencyOverlay.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        latencyOverlay.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
+        latencyOverlay.setVisible(false);
+        statusPanel.add(latencyOverlay, BorderLayout.EAST);
+
         mainPanel.add(statusPanel, BorderLayout.SOUTH);
 
         setContentPane(mainPanel);
     }
+
+    //Creates an empty card slot holding a label that is reused for every update
+    private JPanel createCardSlot(JLabel cardLabel) {
+        JPanel cardSlot = new JPanel(new BorderLayout());
+        cardSlot.setBackground(Color.LIGHT_GRAY);
+        cardSlot.setBorder(BorderFactory.createLineBorder(Color.BLACK));
+        cardSlot.add(cardLabel, BorderLayout.CENTER);
+        return cardSlot;
+    }
     /**
      * Sets up action listeners for all buttons
      */
     private void setupListeners() {
         connectButton.addActionListener(e -> {
-            if (!connected) {
+            if (connecting) {
+                cancelConnect();
+            } else if (!connected) {
                 connectToServer();
             } else {
                 disconnectFromServer();
@@ -186,7 +238,7 @@ public class Client extends JFrame {
         //pass button
         passButton.addActionListener(e -> {
             if (connected && myTurn) {
-                sendCommand("PS");
+                sendCommand(gameClient.pass());
                 resetSelection();
             }
         });
@@ -200,13 +252,8 @@ public class Client extends JFrame {
                 @Override
                 public void actionPerformed(ActionEvent e) {
                     if (connected && myTurn && selectedColumn != -1 && opponentCards[column] != null) {
-                        // Create the move command (from selected card to this opponent card)
-                        char fromCol = (char)('A' + selectedColumn);
-                        char toCol = (char)('A' + column);
-                        String command = String.valueOf(fromCol) + String.valueOf(toCol);
-
-                        // Send the command
-                        sendCommand(command);
+                        // Send the move (from selected card to this opponent card)
+                        sendCommand(gameClient.move(selectedColumn, column));
 
                         // Reset selection after move
                         resetSelection();
@@ -233,6 +280,50 @@ public class Client extends JFrame {
                 }
             });
         }
+
+        // F3 shows or hides the latency overlay, F4 saves the samples for a bug report
+        bindKey("F3", "toggleLatencyOverlay", e -> toggleLatencyOverlay());
+        bindKey("F4", "saveLatencyCsv", e -> saveLatencyCsv());
+    }
+
+    //Runs an action when a key is pressed anywhere in the window
+    private void bindKey(String key, String name, ActionListener action) {
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(key), name);
+        getRootPane().getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                action.actionPerformed(e);
+            }
+        });
+    }
+
+    //Shows or hides the latency percentiles, refreshed twice a second while shown
+    private void toggleLatencyOverlay() {
+        if (latencyOverlayTimer != null) {
+            latencyOverlayTimer.stop();
+            latencyOverlayTimer = null;
+            latencyOverlay.setVisible(false);
+            return;
+        }
+        latencyOverlayTimer = new Timer(500, e -> updateLatencyOverlay());
+        latencyOverlayTimer.start();
+        updateLatencyOverlay();
+        latencyOverlay.setVisible(true);
+    }
+
+    private void updateLatencyOverlay() {
+        latencyOverlay.setText("<html>" + latency.formatSummary().replace("\n", "<br>") + "</html>");
+    }
+
+    //Writes the latency samples to a CSV file in the working directory
+    private void saveLatencyCsv() {
+        Path file = Paths.get("client-latency-" + System.currentTimeMillis() + ".csv");
+        try {
+            latency.writeCsv(file);
+            statusLabel.setText("Latency samples saved to " + file.toAbsolutePath());
+        } catch (IOException e) {
+            statusLabel.setText("Could not save latency samples: " + e.getMessage());
+        }
     }
 
     //Resets the card selection state
@@ -248,22 +339,39 @@ public class Client extends JFrame {
         updateButtonStates();
     }
 
-    //Initiates connection to the server
+    //Initiates connection to the server; the lookup and connect run off the EDT and can be cancelled
     private void connectToServer() {
         try {
-            String server = serverField.getText();
-            int port = Integer.parseInt(portField.getText());
-
-            socket = new Socket(server, port);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
-
-            connected = true;
-            connectButton.setText("Disconnect");
-            statusLabel.setText("Connected to server. Waiting for game to start...");
+            String server = serverField.getText().trim();
+            int port = Integer.parseInt(portField.getText().trim());
+
+            GameClient client = new GameClient(new ClientListener());
+            // Frames compress well against the preset dictionary
+            client.setCompression(true);
+            client.setConnectTimeout(connectTimeoutMs);
+            gameClient = client;
+            startConnectProgress(server, port);
+
+            client.connect(server, port).whenComplete((ignored, error) -> SwingUtilities.invokeLater(() -> {
+                if (client != gameClient) {
+                    // Cancelled, or replaced by a newer attempt
+                    return;
+                }
+                stopConnectProgress();
+
+                if (error != null) {
+                    gameClient = null;
+                    statusLabel.setText("Not connected");
+                    JOptionPane.showMessageDialog(this, "Error connecting to server: " + error.getMessage(),
+                            "Connection Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
 
-            // Start a thread to receive messages from the server
-            new Thread(this::receiveMessages).start();
+                connected = true;
+                connectButton.setText("Disconnect");
+                statusLabel.setText("Connected to server. Waiting for game to start...");
+                renderLatestState();
+            }));
 
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this, "Error connecting to server: " + e.getMessage(),
@@ -271,32 +379,55 @@ public class Client extends JFrame {
         }
     }
 
-    //disconnect from the server
-    private void disconnectFromServer() {
-        try {
-            if (socket != null) {
-                socket.close();
-            }
-            if (in != null) {
-                in.close();
-            }
-            if (out != null) {
-                out.close();
-            }
+    //Shows the attempt in progress and turns the connect button into a cancel button
+    private void startConnectProgress(String server, int port) {
+        connecting = true;
+        serverField.setEnabled(false);
+        portField.setEnabled(false);
+        connectButton.setText("Cancel");
+        String target = "Connecting to " + server + ":" + port + "...";
+        statusLabel.setText(target);
+
+        long startedAt = System.currentTimeMillis();
+        connectProgressTimer = new Timer(1000, e -> statusLabel.setText(
+                target + " " + (System.currentTimeMillis() - startedAt) / 1000 + " s"));
+        connectProgressTimer.start();
+    }
 
-            connected = false;
-            myTurn = false;
-            resetGameState();
+    private void stopConnectProgress() {
+        connecting = false;
+        if (connectProgressTimer != null) {
+            connectProgressTimer.stop();
+            connectProgressTimer = null;
+        }
+        serverField.setEnabled(true);
+        portField.setEnabled(true);
+        connectButton.setText("Connect");
+    }
 
-            connectButton.setText("Connect");
-            statusLabel.setText("Not connected");
-            passButton.setEnabled(false);
-            updateButtonStates();
+    //Abandons the attempt in progress; its late completion is ignored
+    private void cancelConnect() {
+        stopConnectProgress();
+        disconnectFromServer();
+        statusLabel.setText("Connection cancelled");
+    }
 
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error disconnecting: " + e.getMessage(),
-                    "Disconnection Error", JOptionPane.ERROR_MESSAGE);
+    //disconnect from the server; the client's event loop closes the socket, so this never blocks the EDT
+    private void disconnectFromServer() {
+        if (gameClient != null) {
+            gameClient.close();
+            gameClient = null;
         }
+        latestState.set(null);
+
+        connected = false;
+        myTurn = false;
+        resetGameState();
+
+        connectButton.setText("Connect");
+        statusLabel.setText("Not connected");
+        passButton.setEnabled(false);
+        updateButtonStates();
     }
 
     //Resets all game state variables to initial values
@@ -312,250 +443,116 @@ public class Client extends JFrame {
         myScoreLabel.setText("0");
         opponentScoreLabel.setText("0");
         roundLabel.setText("Round: 1");
+        shownMyScore = -1;
+        shownOpponentScore = -1;
+        shownRoundNumber = -1;
         updateCardDisplay();
     }
 
-    //Background thread method to receive messages from the server
-    private void receiveMessages() {
-        try {
-            StringBuilder messageFrame = new StringBuilder();
-            boolean inFrame = false;
-
-            String line;
-            while ((line = in.readLine()) != null) {
-                // Check if this is the start of a new frame
-                if (line.startsWith("/")) {
-                    // Start collecting a new frame
-                    messageFrame = new StringBuilder();
-                    inFrame = true;
-                }
-
-                if (inFrame) {
-                    messageFrame.append(line).append("\n");
+    /**
+     * Receives events from the GameClient on its event loop thread
+     */
+    private class ClientListener implements GameClientListener {
+        @Override
+        public void onStateUpdate(GameClient client, GameView view) {
+            if (client != gameClient) {
+                return;
+            }
 
-                    // Check if this is the end of the frame
-                    if (line.endsWith("/")) {
-                        // Process the complete frame
-                        processMessageFrame(messageFrame.toString());
-                        inFrame = false;
-                    }
-                }
+            // Only the newest state is kept; an update already waiting on the EDT will pick it up
+            latestState.set(view);
+            if (updateScheduled.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(Client.this::renderLatestState);
             }
-        } catch (IOException e) {
-            if (connected) {
-                SwingUtilities.invokeLater(() -> {
-                    statusLabel.setText("Connection lost: " + e.getMessage());
+        }
+
+        @Override
+        public void onDisconnected(GameClient client, Throwable cause) {
+            SwingUtilities.invokeLater(() -> {
+                if (client == gameClient && connected) {
+                    statusLabel.setText("Connection lost: " + (cause != null ? cause.getMessage() : "closed"));
                     disconnectFromServer();
-                });
-            }
+                }
+            });
         }
     }
 
-    //Processes a complete message frame received from the server
-    private void processMessageFrame(String frame) {
-        SwingUtilities.invokeLater(() -> {
-            try {
-                String[] lines = frame.split("\n");
-
-                // Parse game state from the frame
-                parseGameState(lines);
-
-                // Update the UI
-                updateUI();
+    //Runs on the EDT and renders whichever state was published last, dropping older ones
+    private void renderLatestState() {
+        updateScheduled.set(false);
+        if (!connected) {
+            // Keep the state until the connection is marked as established
+            return;
+        }
+        GameView state = latestState.getAndSet(null);
+        if (state == null) {
+            return;
+        }
 
-            } catch (Exception e) {
-                statusLabel.setText("Error processing message: " + e.getMessage());
-                e.printStackTrace();
+        long startedAt = System.nanoTime();
+        if (state.getReceivedAt() != 0) {
+            // A frame from the server rather than a prediction
+            latency.record(LatencyRecorder.EDT_QUEUE, startedAt - state.getReceivedAt());
+            latency.record(LatencyRecorder.PARSE, state.getParseNanos());
+            if (state.getRoundTripNanos() >= 0) {
+                latency.record(LatencyRecorder.ROUND_TRIP, state.getRoundTripNanos());
             }
-        });
-    }
+        }
 
-    //Parses game state information from the server message frame
-    private void parseGameState(String[] lines) {
         try {
-            // Parse round number - improved to handle different formats
-            String roundLine = lines[8];
-            int roundValue = extractRoundNumber(roundLine);
-            if (roundValue > 0) {
-                roundNumber = roundValue;
-            }
-
-            // Parse scores - extract numbers from brackets [X]
-            String myScoreStr = "";
-            String opponentScoreStr = "";
-
-            // Look for [X] pattern in lines[9] for my score
-            for (int i = 0; i < lines[9].length(); i++) {
-                if (lines[9].charAt(i) == '[') {
-                    StringBuilder sb = new StringBuilder();
-                    i++;
-                    while (i < lines[9].length() && Character.isDigit(lines[9].charAt(i))) {
-                        sb.append(lines[9].charAt(i));
-                        i++;
-                    }
-                    myScoreStr = sb.toString();
-                    break;
-                }
-            }
-
-            // Look for [X] pattern in lines[7] for opponent score
-            for (int i = 0; i < lines[7].length(); i++) {
-                if (lines[7].charAt(i) == '[') {
-                    StringBuilder sb = new StringBuilder();
-                    i++;
-                    while (i < lines[7].length() && Character.isDigit(lines[7].charAt(i))) {
-                        sb.append(lines[7].charAt(i));
-                        i++;
-                    }
-                    opponentScoreStr = sb.toString();
-                    break;
-                }
-            }
-
-            // Convert extracted score strings to integers
-            try {
-                if (!myScoreStr.isEmpty()) {
-                    myScore = Integer.parseInt(myScoreStr);
-                }
-                if (!opponentScoreStr.isEmpty()) {
-                    opponentScore = Integer.parseInt(opponentScoreStr);
-                }
-            } catch (NumberFormatException e) {
-
-            }
-
-            // Parse turn indicators
-            char turnIndicator = lines[5].charAt(38);
-            if (turnIndicator == 'v') {
-                myTurn = true;
-                gameOver = false;
-            } else if (turnIndicator == '^') {
-                myTurn = false;
-                gameOver = false;
-            } else if (turnIndicator == '-') {
-                myTurn = false;
-                // Only consider the game over if we've reached round 5 or someone has 9+ points
-                gameOver = (roundNumber >= 5 || myScore >= 9 || opponentScore >= 9);
-            }
-
-            // Parse my cards (bottom row)
-            myCards = new Card[6];
-            for (int i = 0; i < 6; i++) {
-                myCards[i] = parseCard(i, lines, 11, 12, 13);
-            }
-
-            // Parse opponent cards (top row)
-            opponentCards = new Card[6];
-            for (int i = 0; i < 6; i++) {
-                opponentCards[i] = parseCard(i, lines, 3, 4, 5);
-            }
-
-            // Parse log message
-            String logMessage = lines[17].trim();
-
-            // Check if the log message indicates game over
-            if (logMessage.contains("GAME OVER") ||
-                    logMessage.contains("WON!") ||
-                    logMessage.toLowerCase().contains("draw")) {
-                gameOver = true;
-            }
-
-
-            statusLabel.setText(logMessage);
+            applyGameState(state);
 
+            // Update the UI
+            updateUI();
+            latency.record(LatencyRecorder.UPDATE_UI, System.nanoTime() - startedAt);
 
         } catch (Exception e) {
-            System.err.println("Error in parseGameState: " + e.getMessage());
+            statusLabel.setText("Error processing message: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-
-    //Enhanced method to extract round number from various possible formats
-
-    private int extractRoundNumber(String line) {
-        try {
-            // Look for 'R' followed by a number
-            for (int i = 0; i < line.length(); i++) {
-                if (line.charAt(i) == 'R' && i + 1 < line.length() && Character.isDigit(line.charAt(i + 1))) {
-                    StringBuilder sb = new StringBuilder();
-                    i++;
-                    while (i < line.length() && Character.isDigit(line.charAt(i))) {
-                        sb.append(line.charAt(i));
-                        i++;
-                    }
-                    if (sb.length() > 0) {
-                        return Integer.parseInt(sb.toString());
-                    }
-                }
-            }
-
-            // Fallback to looking for a number near the right end of the line
-            if (line.length() >= 3) {
-                String end = line.substring(line.length() - 3).trim();
-                for (int i = 0; i < end.length(); i++) {
-                    if (Character.isDigit(end.charAt(i))) {
-                        StringBuilder sb = new StringBuilder();
-                        while (i < end.length() && Character.isDigit(end.charAt(i))) {
-                            sb.append(end.charAt(i));
-                            i++;
-                        }
-                        if (sb.length() > 0) {
-                            return Integer.parseInt(sb.toString());
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Error parsing round number: " + e.getMessage());
+    //Copies a parsed frame into the client's game state
+    private void applyGameState(GameView state) {
+        if (state.getRoundNumber() > 0) {
+            roundNumber = state.getRoundNumber();
         }
-        return -1; // Return -1 to indicate parsing failure
-    }
-
-    //Parses a card from the ASCII art in the message frame
-    private Card parseCard(int column, String[] lines, int row1, int row2, int row3) {
-        int startCol = 2 + column * 6;
-        int endCol = startCol + 3;
-
-        String art1 = getSubstring(lines[row1], startCol, endCol);
-        String art2 = getSubstring(lines[row2], startCol, endCol);
-        String art3 = getSubstring(lines[row3], startCol, endCol);
-
-        if (art1.trim().isEmpty() && art2.trim().isEmpty() && art3.trim().isEmpty()) {
-            return null;
+        if (state.getMyScore() >= 0) {
+            myScore = state.getMyScore();
         }
-
-        // Determine card type based on ASCII art
-        if (art1.contains("<7>") || art1.contains("<7 ") || (art1.contains("<") && art3.contains("L"))) {
-            return new Card(Card.Type.AXE);
-        } else if (art1.contains("[=]") || art1.contains("[=") || (art1.contains("[") && art2.contains("I") && art3.contains("I"))) {
-            return new Card(Card.Type.HAMMER);
-        } else if (art1.contains("/") || (art1.contains(" /") && art3.contains("X"))) {
-            return new Card(Card.Type.SWORD);
-        } else if (art1.contains("^") || (art1.contains(" ^") && art3.contains("/^\\"))) {
-            return new Card(Card.Type.ARROW);
+        if (state.getOpponentScore() >= 0) {
+            opponentScore = state.getOpponentScore();
+        }
+        myTurn = state.isMyTurn();
+        gameOver = state.isGameOver();
+        for (int i = 0; i < 6; i++) {
+            myCards[i] = state.getMyCard(i);
+            opponentCards[i] = state.getOpponentCard(i);
         }
 
-        // Default to null if we couldn't determine the type
-        return null;
-    }
-
-    private String getSubstring(String line, int start, int end) {
-        if (line.length() >= end) {
-            return line.substring(start, end);
-        } else if (line.length() > start) {
-            return line.substring(start);
+        // A predicted move is shown at once and replaced when the server's frame arrives
+        if (state.isPending()) {
+            setLabelText(statusLabel, state.getLogMessage() + " (waiting for server)");
         } else {
-            return "";
+            setLabelText(statusLabel, state.getLogMessage());
         }
     }
 
     //Updates all UI components based on current game state
     private void updateUI() {
-        // Update score and round display
-        myScoreLabel.setText("You: " + myScore);
-        opponentScoreLabel.setText("Opponent: " + opponentScore);
-        roundLabel.setText("Round: " + roundNumber);
+        // Update score and round display, only when the values changed
+        if (myScore != shownMyScore) {
+            myScoreLabel.setText("You: " + myScore);
+            shownMyScore = myScore;
+        }
+        if (opponentScore != shownOpponentScore) {
+            opponentScoreLabel.setText("Opponent: " + opponentScore);
+            shownOpponentScore = opponentScore;
+        }
+        if (roundNumber != shownRoundNumber) {
+            roundLabel.setText("Round: " + roundNumber);
+            shownRoundNumber = roundNumber;
+        }
 
         // Reset selection when receiving new game state
         selectedColumn = -1;
@@ -569,59 +566,50 @@ public class Client extends JFrame {
         // Update game over status in the UI
         if (gameOver) {
             if (myScore > opponentScore) {
-                statusLabel.setText("Game over - You won!");
+                setLabelText(statusLabel, "Game over - You won!");
             } else if (opponentScore > myScore) {
-                statusLabel.setText("Game over - You lost!");
-            } else if (roundNumber >= 5) {
-                statusLabel.setText("Game over - Draw (5 rounds completed)");
+                setLabelText(statusLabel, "Game over - You lost!");
+            } else if (roundNumber >= Constants.MAX_ROUNDS) {
+                setLabelText(statusLabel, "Game over - Draw (5 rounds completed)");
             }
         }
     }
 
-    //Updates the card display panels based on current game state
+    //Updates the card slots whose card or selection changed since the last update
     private void updateCardDisplay() {
         // Update opponent's cards
         for (int i = 0; i < 6; i++) {
-            JPanel cardSlot = (JPanel) opponentDeckPanel.getComponent(i);
-            cardSlot.removeAll();
-
-            if (opponentCards[i] != null) {
-                cardSlot.setLayout(new BorderLayout());
-                JLabel cardLabel = new JLabel(opponentCards[i].getType().toString(), SwingConstants.CENTER);
-                cardSlot.add(cardLabel, BorderLayout.CENTER);
-                cardSlot.setBackground(Color.WHITE);
-            } else {
-                cardSlot.setLayout(new BorderLayout());
-                cardSlot.setBackground(Color.LIGHT_GRAY);
+            Card.Type type = opponentCards[i] != null ? opponentCards[i].getType() : null;
+            if (type != shownOpponentCards[i]) {
+                showCard(opponentDeckPanel, opponentCardLabels[i], i, type, false);
+                shownOpponentCards[i] = type;
             }
-
-            cardSlot.revalidate();
-            cardSlot.repaint();
         }
 
-        // Update my cards
+        // Update my cards, including the slots that gain or lose the selection highlight
         for (int i = 0; i < 6; i++) {
-            JPanel cardSlot = (JPanel) myDeckPanel.getComponent(i);
-            cardSlot.removeAll();
-
-            if (myCards[i] != null) {
-                cardSlot.setLayout(new BorderLayout());
-                JLabel cardLabel = new JLabel(myCards[i].getType().toString(), SwingConstants.CENTER);
-                cardSlot.add(cardLabel, BorderLayout.CENTER);
-
-                // Highlight selected card
-                if (i == selectedColumn) {
-                    cardSlot.setBackground(Color.YELLOW);
-                } else {
-                    cardSlot.setBackground(Color.WHITE);
-                }
-            } else {
-                cardSlot.setLayout(new BorderLayout());
-                cardSlot.setBackground(Color.LIGHT_GRAY);
+            Card.Type type = myCards[i] != null ? myCards[i].getType() : null;
+            boolean selectionChanged = (i == selectedColumn) != (i == shownSelectedColumn);
+            if (type != shownMyCards[i] || selectionChanged) {
+                showCard(myDeckPanel, myCardLabels[i], i, type, i == selectedColumn);
+                shownMyCards[i] = type;
             }
+        }
+        shownSelectedColumn = selectedColumn;
+    }
+
+    //Shows a card type (or an empty slot) in the given slot of a deck panel
+    private void showCard(JPanel deckPanel, JLabel cardLabel, int column, Card.Type type, boolean selected) {
+        Component cardSlot = deckPanel.getComponent(column);
+        cardLabel.setText(type != null ? type.toString() : "");
 
-            cardSlot.revalidate();
-            cardSlot.repaint();
+        if (type == null) {
+            cardSlot.setBackground(Color.LIGHT_GRAY);
+        } else if (selected) {
+            // Highlight selected card
+            cardSlot.setBackground(Color.YELLOW);
+        } else {
+            cardSlot.setBackground(Color.WHITE);
         }
     }
 
@@ -632,19 +620,21 @@ public class Client extends JFrame {
         boolean canInteract = connected && myTurn && !gameOver;
 
         // Update pass button
-        passButton.setEnabled(canInteract);
+        if (canInteract != shownCanInteract) {
+            passButton.setEnabled(canInteract);
+            shownCanInteract = canInteract;
+        }
 
         // Update top column buttons (opponent's cards)
         for (int i = 0; i < 6; i++) {
-            // Can only click opponent cards if we have a card selected and there's a card to attack
-            boolean canAttack = canInteract && selectedColumn != -1 && opponentCards[i] != null;
-            topColumnButtons[i].setEnabled(canAttack);
-
-            // Give visual feedback about which opponent cards can be attacked
-            if (canAttack) {
-                topColumnButtons[i].setBackground(new Color(255, 200, 200)); // Light red for attackable
-            } else {
-                topColumnButtons[i].setBackground(null); // Default button color
+            // Can only click opponent cards if we have a card selected that can defeat the card there
+            boolean canAttack = canInteract && selectedColumn != -1 && opponentCards[i] != null
+                    && myCards[selectedColumn].canDefeat(opponentCards[i]);
+            if (topColumnButtons[i].isEnabled() != canAttack) {
+                topColumnButtons[i].setEnabled(canAttack);
+
+                // Give visual feedback about which opponent cards can be attacked
+                topColumnButtons[i].setBackground(canAttack ? ATTACKABLE_COLOR : null);
             }
         }
 
@@ -652,49 +642,54 @@ public class Client extends JFrame {
         for (int i = 0; i < 6; i++) {
             // Can only click my cards if it's my turn and the card exists
             boolean canSelect = canInteract && myCards[i] != null;
-            bottomColumnButtons[i].setEnabled(canSelect);
-
-            // Highlight the selected card's button
-            if (i == selectedColumn) {
-                bottomColumnButtons[i].setBackground(Color.YELLOW);
-            } else {
-                bottomColumnButtons[i].setBackground(null); // Default button color
+            if (bottomColumnButtons[i].isEnabled() != canSelect) {
+                bottomColumnButtons[i].setEnabled(canSelect);
             }
         }
-    }
 
-    //Sends a command to the server
-    private void sendCommand(String command) {
-        if (connected && out != null) {
-            out.println(command);
+        // Highlight the selected card's button
+        if (highlightedButtonColumn != selectedColumn) {
+            if (highlightedButtonColumn != -1) {
+                bottomColumnButtons[highlightedButtonColumn].setBackground(null); // Default button color
+            }
+            if (selectedColumn != -1) {
+                bottomColumnButtons[selectedColumn].setBackground(Color.YELLOW);
+            }
+            highlightedButtonColumn = selectedColumn;
         }
     }
 
-    /**
-     * Card class for client-side representation
-     */
-    private static class Card {
-        public enum Type {
-            AXE, HAMMER, SWORD, ARROW
-        }
-
-        private Type type;
-
-        public Card(Type type) {
-            this.type = type;
+    //Sets a label's text only when it differs from what is already shown
+    private static void setLabelText(JLabel label, String text) {
+        if (!text.equals(label.getText())) {
+            label.setText(text);
         }
+    }
 
-        public Type getType() {
-            return type;
-        }
+    //Reports a command the connection refused to send
+    private void sendCommand(CompletableFuture<GameView> result) {
+        result.whenComplete((view, error) -> {
+            if (error != null) {
+                SwingUtilities.invokeLater(() -> statusLabel.setText("Command not sent: " + error.getMessage()));
+            }
+        });
     }
 
     /**
      * server.Main method to start the client
      */
     public static void main(String[] args) {
+        // Usage: Client [--connect-timeout ms]
+        int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--connect-timeout")) {
+                connectTimeoutMs = Integer.parseInt(args[i + 1]);
+            }
+        }
+
+        int timeout = connectTimeoutMs;
         SwingUtilities.invokeLater(() -> {
-            Client client = new Client();
+            Client client = new Client(timeout);
             client.setVisible(true);
         });
     }
@@ -0,0 +1,158 @@
+package client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Single selector thread that performs the network I/O for any number of GameClients
+ * and MultiplexedClients.
+ * Bots and load tools can spread thousands of clients over a handful of loops.
+ * Host names are looked up on a resolver thread of the loop's own, since a lookup blocks.
+ */
+public class ClientEventLoop implements Closeable {
+    private static ClientEventLoop defaultLoop;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ExecutorService resolver;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    public ClientEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.resolver = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, name + "-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.thread.start();
+    }
+
+    /**
+     * Get the process-wide loop used when a client is not given one explicitly
+     */
+    public static synchronized ClientEventLoop getDefault() {
+        if (defaultLoop == null) {
+            try {
+                defaultLoop = new ClientEventLoop("client-event-loop");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return defaultLoop;
+    }
+
+    /**
+     * Run a task on the loop thread
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Look up a server address without blocking the caller or the loop
+     * @return a future that completes on the resolver thread, exceptionally with an
+     *         UnknownHostException for an unknown host or an IllegalArgumentException for a bad port
+     */
+    public CompletableFuture<InetSocketAddress> resolve(String host, int port) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                InetSocketAddress address = new InetSocketAddress(host, port);
+                if (address.isUnresolved()) {
+                    throw new CompletionException(new UnknownHostException(host));
+                }
+                return address;
+            }, resolver);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new IOException("Event loop closed"));
+        }
+    }
+
+    /**
+     * Check if the caller is running on the loop thread
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                runTasks();
+                // Tasks queued by the loop thread itself must not wait for the next I/O event
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    LoopClient client = (LoopClient) key.attachment();
+                    try {
+                        client.handleReady(key);
+                    } catch (RuntimeException e) {
+                        System.err.println("Error in client event loop: " + e.getMessage());
+                        e.printStackTrace();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            System.err.println("Client event loop failed: " + e.getMessage());
+        } finally {
+            // Close every client still registered with this loop
+            for (SelectionKey key : selector.keys()) {
+                ((LoopClient) key.attachment()).closeChannel(new IOException("Event loop closed"));
+            }
+            runTasks();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error closing selector: " + e.getMessage());
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error in client event loop task: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stop the loop and close all of its clients
+     */
+    @Override
+    public void close() {
+        running = false;
+        resolver.shutdown();
+        selector.wakeup();
+    }
+}
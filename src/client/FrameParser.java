@@ -0,0 +1,157 @@
+package client;
+
+import common.Card;
+import common.Constants;
+
+/**
+ * Parses the server's 40x19 ASCII message frames into GameView objects
+ */
+public class FrameParser {
+
+    /**
+     * Parses game state information from a complete message frame
+     * @param lines the frame lines, without line terminators
+     * @return the parsed view, or null if the frame could not be parsed
+     */
+    public static GameView parse(String[] lines) {
+        try {
+            GameView view = new GameView();
+
+            // Parse round number - improved to handle different formats
+            view.roundNumber = extractRoundNumber(lines[8]);
+
+            // Parse scores - extract numbers from brackets [X]
+            view.myScore = extractBracketNumber(lines[9]);
+            view.opponentScore = extractBracketNumber(lines[7]);
+
+            // Parse turn indicators
+            char turnIndicator = lines[5].charAt(38);
+            if (turnIndicator == 'v') {
+                view.myTurn = true;
+            } else if (turnIndicator == '-') {
+                // Only consider the game over if we've reached round 5 or someone has 9+ points
+                view.gameOver = (view.roundNumber >= Constants.MAX_ROUNDS || view.myScore >= Constants.WINNING_SCORE
+                        || view.opponentScore >= Constants.WINNING_SCORE);
+            }
+
+            // Parse my cards (bottom row)
+            for (int i = 0; i < 6; i++) {
+                view.myCards[i] = parseCard(i, lines, 11, 12, 13);
+            }
+
+            // Parse opponent cards (top row)
+            for (int i = 0; i < 6; i++) {
+                view.opponentCards[i] = parseCard(i, lines, 3, 4, 5);
+            }
+
+            // Parse log message
+            view.logMessage = lines[17].trim();
+
+            // Check if the log message indicates game over
+            if (view.logMessage.contains("GAME OVER") ||
+                    view.logMessage.contains("WON!") ||
+                    view.logMessage.toLowerCase().contains("draw")) {
+                view.gameOver = true;
+            }
+
+            return view;
+
+        } catch (Exception e) {
+            System.err.println("Error parsing frame: " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    //Extracts the number inside the first [X] on a line, or -1 if there is none
+    private static int extractBracketNumber(String line) {
+        int open = line.indexOf('[');
+        if (open < 0) {
+            return -1;
+        }
+
+        int value = -1;
+        for (int i = open + 1; i < line.length() && Character.isDigit(line.charAt(i)); i++) {
+            value = (value < 0 ? 0 : value * 10) + (line.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    //Enhanced method to extract round number from various possible formats
+    private static int extractRoundNumber(String line) {
+        try {
+            // Look for 'R' followed by a number
+            for (int i = 0; i < line.length(); i++) {
+                if (line.charAt(i) == 'R' && i + 1 < line.length() && Character.isDigit(line.charAt(i + 1))) {
+                    StringBuilder sb = new StringBuilder();
+                    i++;
+                    while (i < line.length() && Character.isDigit(line.charAt(i))) {
+                        sb.append(line.charAt(i));
+                        i++;
+                    }
+                    if (sb.length() > 0) {
+                        return Integer.parseInt(sb.toString());
+                    }
+                }
+            }
+
+            // Fallback to looking for a number near the right end of the line
+            if (line.length() >= 3) {
+                String end = line.substring(line.length() - 3).trim();
+                for (int i = 0; i < end.length(); i++) {
+                    if (Character.isDigit(end.charAt(i))) {
+                        StringBuilder sb = new StringBuilder();
+                        while (i < end.length() && Character.isDigit(end.charAt(i))) {
+                            sb.append(end.charAt(i));
+                            i++;
+                        }
+                        if (sb.length() > 0) {
+                            return Integer.parseInt(sb.toString());
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error parsing round number: " + e.getMessage());
+        }
+        return -1; // Return -1 to indicate parsing failure
+    }
+
+    //Parses a card from the ASCII art in the message frame
+    private static Card parseCard(int column, String[] lines, int row1, int row2, int row3) {
+        int startCol = 2 + column * 6;
+        int endCol = startCol + 3;
+
+        String art1 = getSubstring(lines[row1], startCol, endCol);
+        String art2 = getSubstring(lines[row2], startCol, endCol);
+        String art3 = getSubstring(lines[row3], startCol, endCol);
+
+        if (art1.trim().isEmpty() && art2.trim().isEmpty() && art3.trim().isEmpty()) {
+            return null;
+        }
+
+        // Determine card type based on ASCII art
+        if (art1.contains("<7>") || art1.contains("<7 ") || (art1.contains("<") && art3.contains("L"))) {
+            return new Card(Card.Type.AXE);
+        } else if (art1.contains("[=]") || art1.contains("[=") || (art1.contains("[") && art2.contains("I") && art3.contains("I"))) {
+            return new Card(Card.Type.HAMMER);
+        } else if (art1.contains("/") || (art1.contains(" /") && art3.contains("X"))) {
+            return new Card(Card.Type.SWORD);
+        } else if (art1.contains("^") || (art1.contains(" ^") && art3.contains("/^\\"))) {
+            return new Card(Card.Type.ARROW);
+        }
+
+        // Default to null if we couldn't determine the type
+        return null;
+    }
+
+    private static String getSubstring(String line, int start, int end) {
+        if (line.length() >= end) {
+            return line.substring(start, end);
+        } else if (line.length() > start) {
+            return line.substring(start);
+        } else {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package client;
+
+import common.Constants;
+import common.FrameCompression;
+import common.Handshake;
+import common.Utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Headless, asynchronous connection to a CoExistence server.
+ * All socket I/O runs on a ClientEventLoop, so the Swing client, bots and load tools
+ * can share the same protocol code and many clients can run on a few threads.
+ */
+public class GameClient extends LoopClient {
+    private final ClientEventLoop eventLoop;
+    private final GameClientListener listener;
+    private final CompletableFuture<Void> connectFuture = new CompletableFuture<>();
+    private volatile String playerId;
+    private volatile String resumeToken;
+    private volatile boolean compressionRequested = false;
+    private volatile long connectTimeoutMs = 0;
+
+    // Only touched on the event loop thread
+    private SocketChannel channel;
+    private SelectionKey key;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private final StringBuilder currentLine = new StringBuilder(Constants.FRAME_WIDTH);
+    private final String[] frameLines = new String[Constants.FRAME_HEIGHT];
+    private int frameLineCount = -1; // -1 while waiting for the start of a frame
+    private boolean awaitingHandshake = false;
+    private Inflater decompressor; // null until compression is accepted
+    private byte[] inflated;
+    private boolean closed = false;
+
+    private volatile boolean connected = false;
+    private volatile GameView latestView;
+    private CompletableFuture<GameView> pendingCommand; // guarded by this
+    private GameView pendingPrediction; // guarded by this
+    private long pendingSentAt; // guarded by this, System.nanoTime() when the pending command was sent
+    private long rejectedPredictions = 0; // guarded by this
+
+    public GameClient(GameClientListener listener) {
+        this(ClientEventLoop.getDefault(), listener);
+    }
+
+    public GameClient(ClientEventLoop eventLoop, GameClientListener listener) {
+        this.eventLoop = eventLoop;
+        this.listener = listener;
+    }
+
+    /**
+     * Identify this player to a cluster router, which answers with a resume token that
+     * reattaches a reconnecting player to its session. Only set this when connecting through a router.
+     */
+    public void setPlayerId(String playerId) {
+        this.playerId = playerId;
+    }
+
+    /**
+     * Reattach to the session of an earlier connection that was lost, using the token the router gave it
+     * @see #getResumeToken()
+     */
+    public void setResumeToken(String resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+
+    /**
+     * @return the token the router gave this connection's session, or null; pass it to
+     *         setResumeToken on a new client to reconnect to the session
+     */
+    public String getResumeToken() { return resumeToken; }
+
+    /**
+     * Ask the server to compress frames. Servers that do not support it keep sending plain text.
+     */
+    public void setCompression(boolean compression) {
+        this.compressionRequested = compression;
+    }
+
+    /**
+     * Give up connecting after a time, including the host name lookup. 0, the default, waits as long as the OS does.
+     */
+    public void setConnectTimeout(long connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    /**
+     * Start connecting to the server. Nothing blocks the caller: the host name is looked up on
+     * the loop's resolver thread and the connection is made on the event loop. Closing the
+     * client cancels it. A lookup that fails, or a port out of range, fails the future.
+     * @return a future that completes once the connection is established
+     */
+    public CompletableFuture<Void> connect(String host, int port) {
+        long timeout = connectTimeoutMs;
+        if (timeout > 0) {
+            CompletableFuture.delayedExecutor(timeout, TimeUnit.MILLISECONDS, eventLoop::execute).execute(() -> {
+                if (!connected) {
+                    closeChannel(new SocketTimeoutException("Connection timed out after " + timeout + " ms"));
+                }
+            });
+        }
+
+        // A lookup can take as long as the DNS server does, so it must not hold up the loop's other clients
+        eventLoop.resolve(host, port).whenCompleteAsync((address, failure) -> {
+            if (failure != null) {
+                closeChannel(failure instanceof CompletionException ? failure.getCause() : failure);
+            } else {
+                startConnect(address);
+            }
+        }, eventLoop::execute);
+        return connectFuture;
+    }
+
+    /**
+     * Attack an opponent card. The move is checked against the rules locally and rejected
+     * without a round-trip if it is invalid; otherwise the predicted state is delivered to
+     * the listener straight away, marked as pending until the server responds.
+     * @param fromColumn the column index of our attacking card (0-5)
+     * @param toColumn the column index of the opponent's target card (0-5)
+     * @return a future that completes with the state frame the server sends in response
+     */
+    public CompletableFuture<GameView> move(int fromColumn, int toColumn) {
+        return sendCommand("" + Utils.indexToColumn(fromColumn) + Utils.indexToColumn(toColumn), fromColumn, toColumn);
+    }
+
+    /**
+     * Pass the turn
+     * @return a future that completes with the state frame the server sends in response
+     */
+    public CompletableFuture<GameView> pass() {
+        return sendCommand("PS", -1, -1);
+    }
+
+    /**
+     * Close the connection
+     */
+    public void close() {
+        eventLoop.execute(() -> closeChannel(null));
+    }
+
+    public boolean isConnected() { return connected; }
+
+    /**
+     * @return the most recent state, which may be a pending prediction, or null before the first frame
+     */
+    public GameView getLatestView() { return latestView; }
+
+    /**
+     * @return how many predictions the server's response did not match
+     */
+    public synchronized long getRejectedPredictions() { return rejectedPredictions; }
+
+    /**
+     * Send a command. The server only reads from the player whose turn it is, so the
+     * next frame after a command sent on our turn is always the response to it.
+     * @param fromColumn the attacking column for a move, or -1 for a pass
+     */
+    private CompletableFuture<GameView> sendCommand(String command, int fromColumn, int toColumn) {
+        CompletableFuture<GameView> result = new CompletableFuture<>();
+        GameView predicted;
+
+        synchronized (this) {
+            GameView view = latestView;
+            if (!connected) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Not connected"));
+            }
+            if (pendingCommand != null) {
+                return CompletableFuture.failedFuture(new IllegalStateException("A command is already pending"));
+            }
+            if (view == null || !view.isMyTurn()) {
+                return CompletableFuture.failedFuture(new IllegalStateException("NOT YOUR TURN"));
+            }
+
+            if (fromColumn >= 0) {
+                String error = MovePredictor.validateMove(view, fromColumn, toColumn);
+                if (error != null) {
+                    return CompletableFuture.failedFuture(new IllegalArgumentException(error));
+                }
+                predicted = MovePredictor.predictMove(view, fromColumn, toColumn);
+            } else {
+                predicted = MovePredictor.predictPass(view);
+            }
+
+            pendingCommand = result;
+            pendingPrediction = predicted;
+            pendingSentAt = System.nanoTime();
+            latestView = predicted;
+        }
+
+        ByteBuffer bytes = ByteBuffer.wrap((command + "\n").getBytes(StandardCharsets.US_ASCII));
+        eventLoop.execute(() -> {
+            write(bytes);
+            if (!closed) {
+                listener.onStateUpdate(this, predicted);
+            }
+        });
+        return result;
+    }
+
+    private void startConnect(InetSocketAddress address) {
+        if (closed) {
+            return;
+        }
+
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            // Commands are tiny and latency-bound, so send them without Nagle's delay
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            key = channel.register(eventLoop.selector(), 0, this);
+
+            if (channel.connect(address)) {
+                finishConnect();
+            } else {
+                key.interestOps(SelectionKey.OP_CONNECT);
+            }
+        } catch (IOException e) {
+            closeChannel(e);
+        }
+    }
+
+    @Override
+    void handleReady(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isConnectable() && channel.finishConnect()) {
+                finishConnect();
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+        } catch (IOException e) {
+            closeChannel(e);
+        }
+    }
+
+    private void finishConnect() {
+        key.interestOps(SelectionKey.OP_READ);
+        if (playerId != null || resumeToken != null || compressionRequested) {
+            Handshake hello = new Handshake(playerId, compressionRequested ? FrameCompression.FORMAT : null,
+                    null, null, resumeToken);
+            write(ByteBuffer.wrap((hello.toLine() + "\n").getBytes(StandardCharsets.US_ASCII)));
+            awaitingHandshake = true;
+        }
+        connected = true;
+        listener.onConnected(this);
+        connectFuture.complete(null);
+    }
+
+    private void write(ByteBuffer bytes) {
+        if (closed) {
+            return;
+        }
+
+        outbound.add(bytes);
+        try {
+            flush();
+        } catch (IOException e) {
+            closeChannel(e);
+        }
+    }
+
+    private void flush() throws IOException {
+        while (!outbound.isEmpty()) {
+            ByteBuffer head = outbound.peek();
+            channel.write(head);
+            if (head.hasRemaining()) {
+                // Socket buffer is full, wait until it drains
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            outbound.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void read() throws IOException {
+        int count = channel.read(readBuffer);
+        if (count < 0) {
+            closeChannel(new EOFException("Server closed the connection"));
+            return;
+        }
+
+        readBuffer.flip();
+        while (readBuffer.hasRemaining()) {
+            if (decompressor != null) {
+                // Bytes after the handshake reply can arrive in the same read
+                inflate();
+                break;
+            }
+            byteReceived(readBuffer.get());
+        }
+        readBuffer.clear();
+    }
+
+    /**
+     * Decompress the rest of the read buffer into lines
+     */
+    private void inflate() throws IOException {
+        decompressor.setInput(readBuffer.array(), readBuffer.position(), readBuffer.remaining());
+        readBuffer.position(readBuffer.limit());
+
+        try {
+            int count;
+            while ((count = decompressor.inflate(inflated)) > 0) {
+                for (int i = 0; i < count; i++) {
+                    byteReceived(inflated[i]);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed frame data", e);
+        }
+    }
+
+    private void byteReceived(byte b) {
+        char c = (char) (b & 0xFF);
+        if (c == '\n') {
+            lineComplete(currentLine.toString());
+            currentLine.setLength(0);
+        } else if (c != '\r') {
+            currentLine.append(c);
+        }
+    }
+
+    private void lineComplete(String line) {
+        if (awaitingHandshake) {
+            awaitingHandshake = false;
+            Handshake reply = Handshake.parse(line);
+            if (reply != null) {
+                if (FrameCompression.FORMAT.equals(reply.getCompression())) {
+                    decompressor = FrameCompression.newDecompressor();
+                    inflated = new byte[4096];
+                }
+                if (reply.getResume() != null) {
+                    resumeToken = reply.getResume();
+                }
+                return;
+            }
+            // A server without handshake support went straight to its first frame
+        }
+
+        // Check if this is the start of a new frame
+        if (line.startsWith("/")) {
+            frameLineCount = 0;
+        }
+
+        if (frameLineCount >= 0) {
+            frameLines[frameLineCount++] = line;
+
+            // The frame is complete once all of its lines have arrived
+            if (frameLineCount == Constants.FRAME_HEIGHT) {
+                frameLineCount = -1;
+                long receivedAt = System.nanoTime();
+                GameView view = FrameParser.parse(frameLines);
+                if (view != null) {
+                    view.receivedAt = receivedAt;
+                    view.parseNanos = System.nanoTime() - receivedAt;
+                    frameReceived(view);
+                }
+            }
+        }
+    }
+
+    private void frameReceived(GameView view) {
+        CompletableFuture<GameView> completed;
+        GameView predicted;
+        boolean rejected;
+        synchronized (this) {
+            if (pendingCommand != null) {
+                view.roundTripNanos = view.receivedAt - pendingSentAt;
+            }
+            latestView = view;
+            completed = pendingCommand;
+            predicted = pendingPrediction;
+            pendingCommand = null;
+            pendingPrediction = null;
+
+            // Reconcile the prediction against the authoritative state, which replaces it either way
+            rejected = predicted != null && !MovePredictor.matches(predicted, view);
+            if (rejected) {
+                rejectedPredictions++;
+            }
+        }
+
+        listener.onStateUpdate(this, view);
+        if (rejected) {
+            listener.onPredictionRejected(this, predicted, view);
+        }
+        if (completed != null) {
+            completed.complete(view);
+        }
+    }
+
+    @Override
+    void closeChannel(Throwable cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        connected = false;
+
+        try {
+            if (key != null) {
+                key.cancel();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+        if (decompressor != null) {
+            decompressor.end();
+        }
+
+        CompletableFuture<GameView> pending;
+        synchronized (this) {
+            pending = pendingCommand;
+            pendingCommand = null;
+            pendingPrediction = null;
+        }
+
+        Throwable failure = cause != null ? cause : new IOException("Connection closed");
+        connectFuture.completeExceptionally(failure);
+        if (pending != null) {
+            pending.completeExceptionally(failure);
+        }
+        listener.onDisconnected(this, cause);
+    }
+}
@@ -0,0 +1,36 @@
+package client;
+
+/**
+ * Receives connection lifecycle events and state updates from a GameClient.
+ * Callbacks run on the client's event loop thread and must not block.
+ */
+public interface GameClientListener {
+
+    /**
+     * Called once the connection to the server has been established
+     */
+    default void onConnected(GameClient client) {
+    }
+
+    /**
+     * Called for every complete state frame received from the server
+     */
+    default void onStateUpdate(GameClient client, GameView view) {
+    }
+
+    /**
+     * Called when the server's response does not match a locally predicted state.
+     * The authoritative state has already been delivered through onStateUpdate.
+     * @param predicted the state that was predicted when the command was sent
+     * @param actual the state the server sent in response
+     */
+    default void onPredictionRejected(GameClient client, GameView predicted, GameView actual) {
+    }
+
+    /**
+     * Called once when the connection is closed
+     * @param cause the error that closed the connection, or null if it was closed by the client
+     */
+    default void onDisconnected(GameClient client, Throwable cause) {
+    }
+}
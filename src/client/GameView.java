@@ -0,0 +1,92 @@
+package client;
+
+import common.Card;
+
+/**
+ * Game state as seen by one player, parsed from a single message frame.
+ * Instances are never modified after they have been published.
+ */
+public class GameView {
+    int roundNumber = -1;
+    int myScore = -1;
+    int opponentScore = -1;
+    boolean myTurn;
+    boolean gameOver;
+    final Card[] myCards = new Card[6];
+    final Card[] opponentCards = new Card[6];
+    String logMessage = "";
+    boolean pending;
+    // Timings filled in by GameClient before the view is published
+    long receivedAt; // System.nanoTime() when the last line of the frame arrived
+    long parseNanos;
+    long roundTripNanos = -1;
+
+    GameView() {
+    }
+
+    /**
+     * Copy another view, used as the starting point for a prediction
+     */
+    GameView(GameView other) {
+        roundNumber = other.roundNumber;
+        myScore = other.myScore;
+        opponentScore = other.opponentScore;
+        myTurn = other.myTurn;
+        gameOver = other.gameOver;
+        System.arraycopy(other.myCards, 0, myCards, 0, myCards.length);
+        System.arraycopy(other.opponentCards, 0, opponentCards, 0, opponentCards.length);
+        logMessage = other.logMessage;
+    }
+
+    /**
+     * @return the round number, or -1 if the frame did not contain one
+     */
+    public int getRoundNumber() { return roundNumber; }
+
+    /**
+     * @return our score, or -1 if the frame did not contain one
+     */
+    public int getMyScore() { return myScore; }
+
+    /**
+     * @return the opponent's score, or -1 if the frame did not contain one
+     */
+    public int getOpponentScore() { return opponentScore; }
+
+    public boolean isMyTurn() { return myTurn; }
+    public boolean isGameOver() { return gameOver; }
+    public String getLogMessage() { return logMessage; }
+
+    /**
+     * @return true if this is a local prediction the server has not confirmed yet
+     */
+    public boolean isPending() { return pending; }
+
+    /**
+     * @return the System.nanoTime() at which the frame was complete, or 0 for a prediction
+     */
+    public long getReceivedAt() { return receivedAt; }
+
+    /**
+     * @return how long the frame took to parse, in nanoseconds
+     */
+    public long getParseNanos() { return parseNanos; }
+
+    /**
+     * @return the time from sending a command to receiving this frame in response, in nanoseconds,
+     * or -1 if the frame was not a response to one of our commands
+     */
+    public long getRoundTripNanos() { return roundTripNanos; }
+
+    /**
+     * @param column the column index (0-5)
+     * @return our card in that column, or null if the slot is empty
+     */
+    public Card getMyCard(int column) { return myCards[column]; }
+
+    /**
+     * @param column the column index (0-5)
+     * @return the opponent's card in that column, or null if the slot is empty
+     */
+    public Card getOpponentCard(int column) { return opponentCards[column]; }
+}
@@ -0,0 +1,114 @@
+package client;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent timings the client measures, so lag a player reports can be
+ * broken down: the command round trip to the server, parsing the reply frame, the wait
+ * for the EDT and the UI update. Each series is a fixed ring of samples; the oldest
+ * are overwritten. Not thread-safe, the Swing client only uses it on the EDT.
+ */
+public class LatencyRecorder {
+    public static final int ROUND_TRIP = 0;
+    public static final int PARSE = 1;
+    public static final int EDT_QUEUE = 2; // from the frame arriving until the EDT picked it up
+    public static final int UPDATE_UI = 3;
+    private static final String[] SERIES_NAMES = {"round_trip", "parse", "edt_queue", "update_ui"};
+    private static final String[] SERIES_LABELS = {"RTT", "Parse", "EDT wait", "Update"};
+
+    private final int capacity;
+    private final long[][] durations; // nanoseconds
+    private final long[][] recordedAt; // wall clock milliseconds, for the CSV
+    private final long[] counts = new long[SERIES_NAMES.length];
+
+    /**
+     * @param capacity how many recent samples to keep per series
+     */
+    public LatencyRecorder(int capacity) {
+        this.capacity = capacity;
+        this.durations = new long[SERIES_NAMES.length][capacity];
+        this.recordedAt = new long[SERIES_NAMES.length][capacity];
+    }
+
+    /**
+     * Add a sample to a series
+     * @param series one of ROUND_TRIP, PARSE, EDT_QUEUE or UPDATE_UI
+     */
+    public void record(int series, long nanos) {
+        int slot = (int) (counts[series] % capacity);
+        durations[series][slot] = nanos;
+        recordedAt[series][slot] = System.currentTimeMillis();
+        counts[series]++;
+    }
+
+    /**
+     * @return the number of samples kept for a series
+     */
+    public int size(int series) {
+        return (int) Math.min(counts[series], capacity);
+    }
+
+    /**
+     * Get a percentile of the kept samples
+     * @param percentile between 0 and 100
+     * @return the sample in nanoseconds, or -1 if the series has none
+     */
+    public long percentile(int series, double percentile) {
+        int size = size(series);
+        if (size == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(durations[series], size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+
+    /**
+     * Describe every series as p50/p95/p99/max in milliseconds, one per line
+     */
+    public String formatSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (int series = 0; series < SERIES_NAMES.length; series++) {
+            if (series > 0) {
+                summary.append('\n');
+            }
+            summary.append(SERIES_LABELS[series]).append(": ");
+            if (size(series) == 0) {
+                summary.append("no samples");
+                continue;
+            }
+            summary.append(String.format("p50 %.1f  p95 %.1f  p99 %.1f  max %.1f ms (%d)",
+                    millis(percentile(series, 50)), millis(percentile(series, 95)),
+                    millis(percentile(series, 99)), millis(percentile(series, 100)), size(series)));
+        }
+        return summary.toString();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * Write every kept sample, oldest first per series, as "series,time_ms,duration_us" lines
+     */
+    public void writeCsv(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("series,time_ms,duration_us\n");
+            for (int series = 0; series < SERIES_NAMES.length; series++) {
+                int size = size(series);
+                long first = counts[series] - size;
+                for (long i = first; i < counts[series]; i++) {
+                    int slot = (int) (i % capacity);
+                    out.write(SERIES_NAMES[series] + "," + recordedAt[series][slot] + ","
+                            + durations[series][slot] / 1000 + "\n");
+                }
+            }
+        }
+    }
+}
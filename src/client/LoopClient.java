@@ -0,0 +1,18 @@
+package client;
+
+import java.nio.channels.SelectionKey;
+
+/**
+ * A connection driven by a ClientEventLoop, attached to its channel's SelectionKey.
+ */
+abstract class LoopClient {
+    /**
+     * Called by the event loop when the channel is ready
+     */
+    abstract void handleReady(SelectionKey key);
+
+    /**
+     * Close the channel and notify the listener, at most once
+     */
+    abstract void closeChannel(Throwable cause);
+}
@@ -0,0 +1,100 @@
+package client;
+
+import common.Card;
+import common.Constants;
+
+import java.util.Objects;
+
+/**
+ * Applies the game rules to a GameView locally, so a move can be shown before the server confirms it.
+ * Uses the same Card rules as the server's GameState.
+ */
+public class MovePredictor {
+
+    /**
+     * Check a move against the rules without sending it
+     * @return null if the move is allowed, otherwise the reason it is not
+     */
+    public static String validateMove(GameView view, int fromColumn, int toColumn) {
+        if (view.isGameOver()) {
+            return "GAME OVER";
+        }
+        if (!view.isMyTurn()) {
+            return "NOT YOUR TURN";
+        }
+        if (fromColumn < 0 || fromColumn >= 6 || toColumn < 0 || toColumn >= 6) {
+            return "INVALID MOVE: OUT OF BOUNDS";
+        }
+
+        Card attacker = view.getMyCard(fromColumn);
+        Card defender = view.getOpponentCard(toColumn);
+        if (attacker == null || defender == null) {
+            return "INVALID MOVE: EMPTY SLOT";
+        }
+        if (!attacker.canDefeat(defender)) {
+            return "INVALID MOVE: CANNOT DEFEAT TARGET";
+        }
+        return null;
+    }
+
+    /**
+     * Predict the state after a move that passed validateMove
+     */
+    public static GameView predictMove(GameView view, int fromColumn, int toColumn) {
+        GameView predicted = new GameView(view);
+        Card attacker = view.getMyCard(fromColumn);
+        Card defender = view.getOpponentCard(toColumn);
+
+        if (defender.earnsPoints(attacker)) {
+            predicted.myScore++;
+        }
+
+        // Remove the defeated card and switch turn to the opponent
+        predicted.opponentCards[toColumn] = null;
+        predicted.logMessage = attacker.getType() + " TAKES " + defender.getType();
+        predicted.myTurn = false;
+
+        if (predicted.myScore >= Constants.WINNING_SCORE) {
+            predicted.gameOver = true;
+        }
+        predicted.pending = true;
+        return predicted;
+    }
+
+    /**
+     * Predict the state after passing. If both players passed, the server deals a new
+     * round that cannot be predicted, so only the turn switch is applied.
+     */
+    public static GameView predictPass(GameView view) {
+        GameView predicted = new GameView(view);
+        predicted.logMessage = "PLAYER PASSED";
+        predicted.myTurn = false;
+        predicted.pending = true;
+        return predicted;
+    }
+
+    /**
+     * Check if a prediction agrees with the state the server sent
+     */
+    public static boolean matches(GameView predicted, GameView actual) {
+        if (predicted.myScore != actual.myScore
+                || predicted.opponentScore != actual.opponentScore
+                || predicted.roundNumber != actual.roundNumber
+                || predicted.myTurn != actual.myTurn
+                || predicted.gameOver != actual.gameOver) {
+            return false;
+        }
+
+        for (int i = 0; i < 6; i++) {
+            if (!sameCard(predicted.myCards[i], actual.myCards[i])
+                    || !sameCard(predicted.opponentCards[i], actual.opponentCards[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameCard(Card a, Card b) {
+        return Objects.equals(a == null ? null : a.getType(), b == null ? null : b.getType());
+    }
+}
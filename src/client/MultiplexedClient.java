@@ -0,0 +1,367 @@
+package client;
+
+import common.Constants;
+import common.FrameCompression;
+import common.Handshake;
+import common.Utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Headless connection that plays many games over one socket using the server's multiplexed
+ * protocol (see server.MultiplexedConnection). Each game is a numbered channel the caller picks.
+ * Meant for bot hosts: commands are not predicted or validated locally, and commands issued
+ * close together, such as the replies to a batch of frames, go out in a single write.
+ */
+public class MultiplexedClient extends LoopClient {
+    private final ClientEventLoop eventLoop;
+    private final MultiplexedClientListener listener;
+    private final CompletableFuture<Void> connectFuture = new CompletableFuture<>();
+    private volatile boolean compressionRequested = false;
+    private volatile boolean connected = false;
+
+    // Commands waiting for the next write, guarded by this
+    private final StringBuilder pendingCommands = new StringBuilder();
+    private boolean flushScheduled = false;
+
+    // Only touched on the event loop thread
+    private SocketChannel channel;
+    private SelectionKey key;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(16 * 1024);
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private final StringBuilder currentLine = new StringBuilder(Constants.FRAME_WIDTH);
+    private final String[] messageLines = new String[Constants.FRAME_HEIGHT];
+    private int messageChannel = -1;
+    private int messageLength = 0; // lines in the message being received
+    private int messageLineCount = 0; // lines of it received so far
+    private boolean awaitingHandshake = true;
+    private Inflater decompressor; // null until compression is accepted
+    private byte[] inflated;
+    private boolean closed = false;
+
+    public MultiplexedClient(MultiplexedClientListener listener) {
+        this(ClientEventLoop.getDefault(), listener);
+    }
+
+    public MultiplexedClient(ClientEventLoop eventLoop, MultiplexedClientListener listener) {
+        this.eventLoop = eventLoop;
+        this.listener = listener;
+    }
+
+    /**
+     * Ask the server to compress frames. Set before connecting.
+     */
+    public void setCompression(boolean compression) {
+        this.compressionRequested = compression;
+    }
+
+    /**
+     * Start connecting to the server without blocking: the host name is looked up on the loop's
+     * resolver thread and the connection is made on the event loop
+     * @return a future that completes once the server has accepted the multiplexed protocol
+     */
+    public CompletableFuture<Void> connect(String host, int port) {
+        eventLoop.resolve(host, port).whenCompleteAsync((address, failure) -> {
+            if (failure != null) {
+                closeChannel(failure instanceof CompletionException ? failure.getCause() : failure);
+            } else {
+                startConnect(address);
+            }
+        }, eventLoop::execute);
+        return connectFuture;
+    }
+
+    /**
+     * Queue a channel for a game
+     * @param playerId the id the game is rated under, or null to play unrated
+     */
+    public void join(int channel, String playerId) {
+        sendCommand(channel, playerId != null ? "JOIN " + playerId : "JOIN");
+    }
+
+    /**
+     * Attack an opponent card in a channel's game
+     */
+    public void move(int channel, int fromColumn, int toColumn) {
+        sendCommand(channel, "" + Utils.indexToColumn(fromColumn) + Utils.indexToColumn(toColumn));
+    }
+
+    /**
+     * Pass the turn in a channel's game
+     */
+    public void pass(int channel) {
+        sendCommand(channel, "PS");
+    }
+
+    /**
+     * Leave a channel's game, which the server treats as a disconnect of that player only
+     */
+    public void leave(int channel) {
+        sendCommand(channel, "LEAVE");
+    }
+
+    /**
+     * Close the connection and with it every channel
+     */
+    public void close() {
+        eventLoop.execute(() -> closeChannel(null));
+    }
+
+    public boolean isConnected() { return connected; }
+
+    private void sendCommand(int channel, String command) {
+        boolean schedule;
+        synchronized (this) {
+            pendingCommands.append(channel).append(' ').append(command).append('\n');
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (schedule) {
+            eventLoop.execute(this::writeCommands);
+        }
+    }
+
+    /**
+     * Write every command queued since the last write
+     */
+    private void writeCommands() {
+        String commands;
+        synchronized (this) {
+            commands = pendingCommands.toString();
+            pendingCommands.setLength(0);
+            flushScheduled = false;
+        }
+        if (commands.isEmpty()) {
+            return;
+        }
+        if (channel != null && !awaitingHandshake) {
+            write(ByteBuffer.wrap(commands.getBytes(StandardCharsets.US_ASCII)));
+        } else {
+            // Still connecting; the commands follow the handshake
+            synchronized (this) {
+                pendingCommands.insert(0, commands);
+            }
+        }
+    }
+
+    private void startConnect(InetSocketAddress address) {
+        if (closed) {
+            return;
+        }
+
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            key = channel.register(eventLoop.selector(), 0, this);
+
+            if (channel.connect(address)) {
+                finishConnect();
+            } else {
+                key.interestOps(SelectionKey.OP_CONNECT);
+            }
+        } catch (IOException e) {
+            closeChannel(e);
+        }
+    }
+
+    @Override
+    void handleReady(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isConnectable() && channel.finishConnect()) {
+                finishConnect();
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+        } catch (IOException e) {
+            closeChannel(e);
+        }
+    }
+
+    private void finishConnect() {
+        key.interestOps(SelectionKey.OP_READ);
+        Handshake hello = new Handshake(null, compressionRequested ? FrameCompression.FORMAT : null,
+                Handshake.MULTIPLEX_VERSION);
+        write(ByteBuffer.wrap((hello.toLine() + "\n").getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private void write(ByteBuffer bytes) {
+        if (closed) {
+            return;
+        }
+
+        outbound.add(bytes);
+        try {
+            flush();
+        } catch (IOException e) {
+            closeChannel(e);
+        }
+    }
+
+    private void flush() throws IOException {
+        while (!outbound.isEmpty()) {
+            ByteBuffer head = outbound.peek();
+            channel.write(head);
+            if (head.hasRemaining()) {
+                // Socket buffer is full, wait until it drains
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            outbound.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void read() throws IOException {
+        int count = channel.read(readBuffer);
+        if (count < 0) {
+            closeChannel(new EOFException("Server closed the connection"));
+            return;
+        }
+
+        readBuffer.flip();
+        while (readBuffer.hasRemaining() && !closed) {
+            if (decompressor != null) {
+                // Bytes after the handshake reply can arrive in the same read
+                inflate();
+                break;
+            }
+            byteReceived(readBuffer.get());
+        }
+        readBuffer.clear();
+    }
+
+    /**
+     * Decompress the rest of the read buffer into lines
+     */
+    private void inflate() throws IOException {
+        decompressor.setInput(readBuffer.array(), readBuffer.position(), readBuffer.remaining());
+        readBuffer.position(readBuffer.limit());
+
+        try {
+            int count;
+            while ((count = decompressor.inflate(inflated)) > 0) {
+                for (int i = 0; i < count; i++) {
+                    byteReceived(inflated[i]);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed frame data", e);
+        }
+    }
+
+    private void byteReceived(byte b) {
+        char c = (char) (b & 0xFF);
+        if (c == '\n') {
+            lineComplete(currentLine.toString());
+            currentLine.setLength(0);
+        } else if (c != '\r') {
+            currentLine.append(c);
+        }
+    }
+
+    private void lineComplete(String line) {
+        if (awaitingHandshake) {
+            Handshake reply = Handshake.parse(line);
+            if (reply == null || !Handshake.MULTIPLEX_VERSION.equals(reply.getMultiplexing())) {
+                closeChannel(new IOException("Server does not support multiplexed connections"));
+                return;
+            }
+            if (FrameCompression.FORMAT.equals(reply.getCompression())) {
+                decompressor = FrameCompression.newDecompressor();
+                inflated = new byte[16 * 1024];
+            }
+            awaitingHandshake = false;
+            connected = true;
+            listener.onConnected(this);
+            connectFuture.complete(null);
+            // Commands queued while connecting
+            writeCommands();
+            return;
+        }
+
+        if (messageLineCount < messageLength) {
+            if (messageLineCount < messageLines.length) {
+                messageLines[messageLineCount] = line;
+            }
+            if (++messageLineCount == messageLength) {
+                messageComplete();
+            }
+            return;
+        }
+
+        // Between messages, every line is a "#<channel> <lineCount>" header
+        int space = line.indexOf(' ');
+        if (!line.startsWith("#") || space < 0) {
+            return;
+        }
+        try {
+            messageChannel = Integer.parseInt(line.substring(1, space));
+            messageLength = Integer.parseInt(line.substring(space + 1));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        messageLineCount = 0;
+        if (messageLength == 0) {
+            listener.onChannelClosed(this, messageChannel);
+        }
+    }
+
+    private void messageComplete() {
+        if (messageLength == Constants.FRAME_HEIGHT && messageLines[0].startsWith("/")) {
+            GameView view = FrameParser.parse(messageLines);
+            if (view != null) {
+                listener.onStateUpdate(this, messageChannel, view);
+            }
+        } else if (messageLength == 1) {
+            listener.onMessage(this, messageChannel, messageLines[0]);
+        }
+        messageLength = 0;
+        messageLineCount = 0;
+    }
+
+    @Override
+    void closeChannel(Throwable cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        connected = false;
+
+        try {
+            if (key != null) {
+                key.cancel();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+        if (decompressor != null) {
+            decompressor.end();
+        }
+
+        connectFuture.completeExceptionally(cause != null ? cause : new IOException("Connection closed"));
+        listener.onDisconnected(this, cause);
+    }
+}
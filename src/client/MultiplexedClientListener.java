@@ -0,0 +1,39 @@
+package client;
+
+/**
+ * Receives events from a MultiplexedClient, each tagged with its game channel.
+ * Callbacks run on the client's event loop thread and must not block.
+ */
+public interface MultiplexedClientListener {
+
+    /**
+     * Called once the server has accepted the multiplexed connection
+     */
+    default void onConnected(MultiplexedClient client) {
+    }
+
+    /**
+     * Called for every complete state frame received on a channel
+     */
+    default void onStateUpdate(MultiplexedClient client, int channel, GameView view) {
+    }
+
+    /**
+     * Called for a one-line message on a channel, such as "NO OPPONENT FOUND" or "SERVER BUSY"
+     */
+    default void onMessage(MultiplexedClient client, int channel, String message) {
+    }
+
+    /**
+     * Called when the server closes a channel; its number can then be joined again
+     */
+    default void onChannelClosed(MultiplexedClient client, int channel) {
+    }
+
+    /**
+     * Called once when the connection is closed, which ends every channel
+     * @param cause the error that closed the connection, or null if it was closed by the client
+     */
+    default void onDisconnected(MultiplexedClient client, Throwable cause) {
+    }
+}
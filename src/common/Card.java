@@ -1,16 +1,32 @@
-package server;
+package common;
 
 public class Card {
     public enum Type {
         AXE, HAMMER, SWORD, ARROW
     }
 
-    private Type type;
+    // Cards are immutable, so one instance per type serves every game
+    private static final Card[] SHARED = new Card[Type.values().length];
+
+    static {
+        for (Type type : Type.values()) {
+            SHARED[type.ordinal()] = new Card(type);
+        }
+    }
+
+    private final Type type;
 
     public Card(Type type) {
         this.type = type;
     }
 
+    /**
+     * Get the shared card of a type
+     */
+    public static Card of(Type type) {
+        return SHARED[type.ordinal()];
+    }
+
     public Type getType() {
         return type;
     }
@@ -7,8 +7,13 @@ public class Constants {
     public static final int FRAME_WIDTH = 40;
     public static final int FRAME_HEIGHT = 19;
 
+    // Game rule constants, shared by the server and client-side prediction
+    public static final int WINNING_SCORE = 9;
+    public static final int MAX_ROUNDS = 5;
+
     // Network constants
     public static final int DEFAULT_PORT = 35754;
+    public static final int DEFAULT_CONTROL_PORT = 35755;
 
 
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed transport for the text frames, negotiated with the "compress" handshake option.
+ * After the handshake the whole server-to-client stream is one raw DEFLATE stream, sync-flushed
+ * after every frame. Both sides start from a preset dictionary holding the static frame skeleton,
+ * so even the first frame is small, and the compressor context lives as long as the connection,
+ * so each frame compresses against the previous ones.
+ */
+public class FrameCompression {
+    // Name of this format in the handshake; change it whenever the dictionary changes
+    public static final String FORMAT = "deflate-v1";
+
+    private static final byte[] DICTIONARY = (
+            "NEW GAME NEW ROUND PLAYER PASSED NOT YOUR TURN SYNTAX ERROR GAME OVER - DRAW; PLAYER 1 WON!" +
+            "; PLAYER 2 WON! INVALID MOVE: OUT OF BOUNDS INVALID MOVE: CANNOT DEFEAT TARGET " +
+            "AXE TAKES HAMMER SWORD TAKES ARROW TAKES \n" +
+            " |<7>| |[=]| |  /| | ^ | | I | | I   | / | | I | | L | | I   |X  | |/^\\| \n" +
+            "/--------------------------------------\\\n" +
+            "   A     B     C     D     E     F      \n" +
+            " /---\\ /---\\ /---\\ /---\\ /---\\ /---\\    \n" +
+            " |   | |   | |   | |   | |   | |   |  - \n" +
+            " |   | |   | |   | |   | |   | |   |  | \n" +
+            " |   | |   | |   | |   | |   | |   |  v \n" +
+            " \\---/ \\---/ \\---/ \\---/ \\---/ \\---/    \n" +
+            "                                    [0] \n" +
+            " <=================================>R1< \n" +
+            "                                    [0] \n" +
+            " /---\\ /---\\ /---\\ /---\\ /---\\ /---\\    \n" +
+            " |   | |   | |   | |   | |   | |   |    \n" +
+            " |   | |   | |   | |   | |   | |   |  ^ \n" +
+            " |   | |   | |   | |   | |   | |   |  | \n" +
+            " \\---/ \\---/ \\---/ \\---/ \\---/ \\---/  - \n" +
+            "   A     B     C     D     E     F      \n" +
+            " -------------------------------------- \n" +
+            "                                        \n" +
+            "\\--------------------------------------/\n"
+    ).getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Create the compressor for one connection. Must be ended when the connection closes.
+     */
+    public static Deflater newCompressor() {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        deflater.setDictionary(DICTIONARY);
+        return deflater;
+    }
+
+    /**
+     * Create the matching decompressor for one connection. Must be ended when the connection closes.
+     */
+    public static Inflater newDecompressor() {
+        Inflater inflater = new Inflater(true);
+        inflater.setDictionary(DICTIONARY);
+        return inflater;
+    }
+}
@@ -0,0 +1,158 @@
+package common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Optional first line a client sends on connect: "HELLO [id=<playerId>] [compress=<format>] [mux=<version>]
+ * [match=<token>] [resume=<token>]". A cluster router sends the same match token for both
+ * players it paired, so the node plays them against each other instead of matchmaking. The
+ * router answers an identified player with a resume token, which the player sends back to
+ * reattach to its session after losing the connection. Legacy clients send nothing and simply
+ * wait for their first frame, so the server only waits a short time for it. The server
+ * answers a HELLO with a HELLO line listing the options it accepted, after which the accepted
+ * options take effect.
+ */
+public class Handshake {
+    public static final String PREFIX = "HELLO";
+    // The multiplexed protocol, where one connection carries many games (see server.MultiplexedConnection)
+    public static final String MULTIPLEX_VERSION = "v1";
+    public static final int MAX_LINE_LENGTH = 128;
+
+    private String playerId;
+    private String compression;
+    private String multiplexing;
+    private String match;
+    private String resume;
+
+    public Handshake(String playerId, String compression) {
+        this(playerId, compression, null);
+    }
+
+    public Handshake(String playerId, String compression, String multiplexing) {
+        this(playerId, compression, multiplexing, null);
+    }
+
+    public Handshake(String playerId, String compression, String multiplexing, String match) {
+        this(playerId, compression, multiplexing, match, null);
+    }
+
+    public Handshake(String playerId, String compression, String multiplexing, String match, String resume) {
+        this.playerId = playerId;
+        this.compression = compression;
+        this.multiplexing = multiplexing;
+        this.match = match;
+        this.resume = resume;
+    }
+
+    public String getPlayerId() { return playerId; }
+
+    /**
+     * @return the compression format, or null for plain text frames
+     */
+    public String getCompression() { return compression; }
+
+    /**
+     * @return the multiplexed protocol version, or null for one game per connection
+     */
+    public String getMultiplexing() { return multiplexing; }
+
+    /**
+     * @return the token of the match a router already paired this player into, or null to be matched by rating
+     */
+    public String getMatch() { return match; }
+
+    /**
+     * @return the token that reattaches a player to its routed session, or null
+     */
+    public String getResume() { return resume; }
+
+    /**
+     * Parse a handshake line
+     * @return the handshake, or null if the line is not a HELLO
+     */
+    public static Handshake parse(String line) {
+        String[] parts = line.trim().split(" +");
+        if (!parts[0].equals(PREFIX)) {
+            return null;
+        }
+
+        String playerId = null;
+        String compression = null;
+        String multiplexing = null;
+        String match = null;
+        String resume = null;
+        for (int i = 1; i < parts.length; i++) {
+            if (parts[i].startsWith("id=")) {
+                playerId = parts[i].substring(3);
+            } else if (parts[i].startsWith("compress=")) {
+                compression = parts[i].substring(9);
+            } else if (parts[i].startsWith("mux=")) {
+                multiplexing = parts[i].substring(4);
+            } else if (parts[i].startsWith("match=")) {
+                match = parts[i].substring(6);
+            } else if (parts[i].startsWith("resume=")) {
+                resume = parts[i].substring(7);
+            }
+            // Unknown options are ignored so newer clients can talk to older servers
+        }
+        return new Handshake(playerId, compression, multiplexing, match, resume);
+    }
+
+    /**
+     * Format the handshake as a line, without the line terminator
+     */
+    public String toLine() {
+        StringBuilder line = new StringBuilder(PREFIX);
+        if (playerId != null) {
+            line.append(" id=").append(playerId);
+        }
+        if (compression != null) {
+            line.append(" compress=").append(compression);
+        }
+        if (multiplexing != null) {
+            line.append(" mux=").append(multiplexing);
+        }
+        if (match != null) {
+            line.append(" match=").append(match);
+        }
+        if (resume != null) {
+            line.append(" resume=").append(resume);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Wait a short time for a client's handshake line.
+     * Reads byte by byte so nothing after the line is consumed.
+     * @return the handshake, or null if the client sent nothing or something other than a HELLO
+     */
+    public static Handshake read(Socket socket, int timeoutMs) throws IOException {
+        socket.setSoTimeout(timeoutMs);
+        InputStream in = socket.getInputStream();
+        StringBuilder line = new StringBuilder();
+
+        try {
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b == -1) {
+                    throw new IOException("Connection closed during handshake");
+                }
+                if (line.length() >= MAX_LINE_LENGTH) {
+                    throw new IOException("Handshake line too long");
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            return null;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+
+        return parse(line.toString());
+    }
+}
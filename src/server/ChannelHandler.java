@@ -0,0 +1,31 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+
+/**
+ * A channel served by a ServerEventLoop: a connection's handshake, then the connection itself.
+ * The loop calls every method on its own thread.
+ */
+interface ChannelHandler {
+    /**
+     * @return the connection's number in the event log
+     */
+    long getId();
+
+    /**
+     * The channel is registered with the loop, with no interest yet
+     */
+    void registered(SelectionKey key);
+
+    /**
+     * The channel is ready for what the handler asked for
+     * @param readBuffer the loop's shared buffer, free to use until this returns
+     */
+    void handleReady(SelectionKey key, ByteBuffer readBuffer);
+
+    /**
+     * Close at once, because the loop is stopping
+     */
+    void abort();
+}
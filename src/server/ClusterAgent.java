@@ -0,0 +1,77 @@
+package server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.Socket;
+
+/**
+ * Registers a server node with a ClusterRouter and reports its load once a second.
+ * Reconnects to the router if the control connection is lost.
+ */
+public class ClusterAgent implements Runnable {
+    private static final long REPORT_INTERVAL_MS = 1000;
+
+    private final CoExistenceServer server;
+    private final String routerHost;
+    private final int routerPort;
+    private final String advertisedHost;
+    private final int advertisedPort;
+    private volatile boolean running = true;
+
+    public ClusterAgent(CoExistenceServer server, String routerHost, int routerPort,
+                        String advertisedHost, int advertisedPort) {
+        this.server = server;
+        this.routerHost = routerHost;
+        this.routerPort = routerPort;
+        this.advertisedHost = advertisedHost;
+        this.advertisedPort = advertisedPort;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try (Socket socket = new Socket(routerHost, routerPort);
+                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+
+                out.println("REGISTER " + advertisedHost + " " + advertisedPort);
+                EventLog.log(EventLog.ROUTER_JOINED, routerPort, 0, routerHost);
+
+                while (running && !out.checkError()) {
+                    out.println("LOAD " + server.getActiveSessions() + " " + cpuLoad());
+                    Thread.sleep(REPORT_INTERVAL_MS);
+                }
+            } catch (IOException e) {
+                EventLog.log(EventLog.ROUTER_UNREACHABLE, routerPort, 0, routerHost + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                Thread.sleep(REPORT_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * CPU load of this process between 0 and 1, falling back to the system load average per core
+     */
+    private static double cpuLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+            if (load >= 0) {
+                return load;
+            }
+        }
+        double average = os.getSystemLoadAverage();
+        return average < 0 ? 0.0 : Math.min(1.0, average / os.getAvailableProcessors());
+    }
+}
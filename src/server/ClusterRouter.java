@@ -0,0 +1,546 @@
+package server;
+
+import common.Constants;
+import common.FrameCompression;
+import common.Handshake;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Front door for a cluster of CoExistenceServer nodes.
+ * Nodes register on the control port and report their load; players connect to the
+ * player port and each new match is proxied to the least loaded node, which is told to play
+ * the two connections against each other rather than matchmake them itself. A player that
+ * identified itself with "HELLO id=<id>" is answered with an unguessable resume token; if it
+ * loses its connection, it can reconnect with "HELLO resume=<token>" within a grace period and
+ * is attached again to the session it left on the owning node.
+ * Frame compression is negotiated with the router, which talks plain text to the nodes.
+ */
+public class ClusterRouter {
+    // How long to wait for the optional HELLO line from a new player
+    private static final int HELLO_TIMEOUT_MS = 250;
+    // How long a disconnected player's session is kept open for a reconnect
+    private static final int RECONNECT_GRACE_SECONDS = 30;
+    // Nodes that have not reported their load for this long are not given new matches
+    private static final long NODE_TIMEOUT_MS = 5000;
+    // Commands a waiting player sends before its match are kept for the node up to this many bytes
+    private static final int MAX_EARLY_COMMAND_BYTES = 64;
+    private static final int RESUME_TOKEN_BYTES = 16;
+
+    private int playerPort;
+    private int controlPort;
+    private ServerSocket playerSocket;
+    private ServerSocket controlSocket;
+    private ExecutorService threadPool;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+    private final Map<Socket, NodeInfo> nodes = new ConcurrentHashMap<>();
+    private final Map<String, RoutedPlayer> detachedPlayers = new ConcurrentHashMap<>(); // by resume token
+    private final SecureRandom resumeTokens = new SecureRandom();
+    // Numbers matches for the nodes; starting from the clock keeps tokens unique across router restarts
+    private final AtomicLong matchIds = new AtomicLong(System.currentTimeMillis() * 1000);
+    // Numbers player connections for the event log
+    private final AtomicLong connectionIds = new AtomicLong();
+    private final Object lobbyLock = new Object();
+    private RoutedPlayer waitingPlayer; // guarded by lobbyLock
+
+    public ClusterRouter(int playerPort, int controlPort) {
+        this.playerPort = playerPort;
+        this.controlPort = controlPort;
+        this.threadPool = Executors.newCachedThreadPool();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.running = false;
+    }
+
+    /**
+     * Start the router
+     */
+    public void start() {
+        try {
+            controlSocket = new ServerSocket(controlPort);
+            playerSocket = new ServerSocket(playerPort);
+            running = true;
+
+            System.out.println("Cluster router started on port " + playerPort + " (control port " + controlPort + ")");
+            EventLog.log(EventLog.ROUTER_STARTED, playerPort, controlPort);
+            threadPool.execute(this::acceptNodes);
+
+            // Main router loop
+            while (running) {
+                Socket socket = playerSocket.accept();
+                threadPool.execute(() -> handlePlayer(socket));
+            }
+
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Router error: " + e.getMessage());
+                EventLog.log(EventLog.SERVER_ERROR, playerPort, 0, e.getMessage());
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Stop the router
+     */
+    public void stop() {
+        running = false;
+
+        try {
+            if (playerSocket != null) {
+                playerSocket.close();
+            }
+            if (controlSocket != null) {
+                controlSocket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error stopping router: " + e.getMessage());
+        }
+
+        threadPool.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Accept control connections from server nodes
+     */
+    private void acceptNodes() {
+        try {
+            while (running) {
+                Socket socket = controlSocket.accept();
+                threadPool.execute(() -> handleNode(socket));
+            }
+        } catch (IOException e) {
+            if (running) {
+                EventLog.log(EventLog.SERVER_ERROR, controlPort, 0, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Read REGISTER and LOAD messages from a node until its control connection closes
+     */
+    private void handleNode(Socket socket) {
+        String error = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+
+                if (parts[0].equals("REGISTER") && parts.length == 3) {
+                    NodeInfo node = new NodeInfo(parts[1], Integer.parseInt(parts[2]));
+                    nodes.put(socket, node);
+                    EventLog.log(EventLog.NODE_REGISTERED, nodes.size(), 0, node.host + ":" + node.port);
+                } else if (parts[0].equals("LOAD") && parts.length == 3) {
+                    NodeInfo node = nodes.get(socket);
+                    if (node != null) {
+                        node.report(Integer.parseInt(parts[1]), Double.parseDouble(parts[2]));
+                    }
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            error = e.getMessage();
+        } finally {
+            NodeInfo node = nodes.remove(socket);
+            if (node != null) {
+                EventLog.log(EventLog.NODE_LEFT, nodes.size(), 0,
+                        node.host + ":" + node.port + (error != null ? " (" + error + ")" : ""));
+            } else if (error != null) {
+                EventLog.log(EventLog.SERVER_ERROR, controlPort, 0, "node control connection: " + error);
+            }
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Identify a new player and either reattach it to its session or put it in the lobby
+     */
+    private void handlePlayer(Socket socket) {
+        long id = connectionIds.incrementAndGet();
+        EventLog.log(EventLog.CONNECTION_ACCEPTED, id, 0, socket.getRemoteSocketAddress().toString());
+        try {
+            Handshake hello = Handshake.read(socket, HELLO_TIMEOUT_MS);
+            // An id that cannot be stored is ignored, as the nodes do, and the player cannot reconnect
+            String playerId = hello != null && RatingStore.isValidId(hello.getPlayerId()) ? hello.getPlayerId() : null;
+            boolean compressed = hello != null && FrameCompression.FORMAT.equals(hello.getCompression());
+
+            // Only the token handed out for a session reattaches to it; anyone can claim a player id
+            RoutedPlayer resumed = hello != null && hello.getResume() != null ? detachedPlayers.remove(hello.getResume()) : null;
+            String resumeToken = resumed != null ? resumed.resumeToken : playerId != null ? newResumeToken() : null;
+
+            if (hello != null) {
+                Handshake accepted = new Handshake(null, compressed ? FrameCompression.FORMAT : null, null, null, resumeToken);
+                socket.getOutputStream().write((accepted.toLine() + "\n").getBytes(StandardCharsets.US_ASCII));
+            }
+
+            if (resumed != null) {
+                if (resumed.attach(socket, compressed)) {
+                    EventLog.log(EventLog.PLAYER_RECONNECTED, id, resumed.id, resumed.playerId);
+                    threadPool.execute(resumed::pumpToNode);
+                    return;
+                }
+                // The session ended meanwhile, so its token is free for the player's next one
+            }
+
+            RoutedPlayer opponent = null;
+            RoutedPlayer player = new RoutedPlayer(id, playerId, resumeToken);
+            player.attach(socket, compressed);
+            synchronized (lobbyLock) {
+                if (waitingPlayer == null) {
+                    waitingPlayer = player;
+                } else {
+                    opponent = waitingPlayer;
+                    waitingPlayer = null;
+                }
+            }
+
+            // Reading from the start sees a waiting player hang up, and keeps its early commands for the node
+            threadPool.execute(player::pumpToNode);
+            if (opponent != null) {
+                startMatch(opponent, player);
+            }
+
+        } catch (IOException e) {
+            EventLog.log(EventLog.HANDSHAKE_FAILED, id, 0, e.getMessage());
+            closeQuietly(socket);
+        }
+    }
+
+    private String newResumeToken() {
+        byte[] token = new byte[RESUME_TOKEN_BYTES];
+        resumeTokens.nextBytes(token);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+
+    /**
+     * Take a player out of the lobby
+     * @return false if it was not waiting there
+     */
+    private boolean leaveLobby(RoutedPlayer player) {
+        synchronized (lobbyLock) {
+            if (waitingPlayer != player) {
+                return false;
+            }
+            waitingPlayer = null;
+            return true;
+        }
+    }
+
+    /**
+     * Connect both players of a new match to the least loaded node
+     */
+    private void startMatch(RoutedPlayer player1, RoutedPlayer player2) {
+        NodeInfo node = selectNode();
+        if (node == null) {
+            EventLog.log(EventLog.MATCH_FAILED, player1.id, player2.id, "no server nodes available");
+            player1.close();
+            player2.close();
+            return;
+        }
+
+        // Both connections carry the match's token, so the node pairs them whatever else arrives in between
+        String match = Long.toString(matchIds.incrementAndGet(), 36);
+        node.assigned();
+        try {
+            player1.connect(node, match);
+            player2.connect(node, match);
+        } catch (IOException e) {
+            // Neither player can play without the other
+            EventLog.log(EventLog.MATCH_FAILED, player1.id, player2.id, node.host + ":" + node.port + ": " + e.getMessage());
+            player1.close();
+            player2.close();
+            return;
+        }
+
+        EventLog.log(EventLog.MATCH_ROUTED, player1.id, player2.id, node.host + ":" + node.port);
+        threadPool.execute(player1::pumpToPlayer);
+        threadPool.execute(player2::pumpToPlayer);
+    }
+
+    /**
+     * Pick the live node with the lowest load score
+     */
+    private NodeInfo selectNode() {
+        long now = System.currentTimeMillis();
+        NodeInfo best = null;
+
+        for (NodeInfo node : nodes.values()) {
+            if (now - node.lastReport > NODE_TIMEOUT_MS) {
+                continue;
+            }
+            if (best == null || node.score() < best.score()) {
+                best = node;
+            }
+        }
+        return best;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // Already closing
+        }
+    }
+
+    /**
+     * A registered server node and its last reported load
+     */
+    private static class NodeInfo {
+        private final String host;
+        private final int port;
+        private volatile int activeSessions;
+        private volatile double cpuLoad;
+        private volatile long lastReport;
+
+        NodeInfo(String host, int port) {
+            this.host = host;
+            this.port = port;
+            this.lastReport = System.currentTimeMillis();
+        }
+
+        void report(int activeSessions, double cpuLoad) {
+            this.activeSessions = activeSessions;
+            this.cpuLoad = cpuLoad;
+            this.lastReport = System.currentTimeMillis();
+        }
+
+        /**
+         * Count a match straight away so a burst of matches is not all sent to the same node
+         * before its next report
+         */
+        synchronized void assigned() {
+            activeSessions++;
+        }
+
+        double score() {
+            return (activeSessions + 1) * (1.0 + Math.max(0.0, cpuLoad));
+        }
+    }
+
+    /**
+     * A player connection proxied to a session on a node. The backend connection stays
+     * open while the player is detached so the session survives a reconnect.
+     */
+    private class RoutedPlayer {
+        private final long id; // the connection it first arrived on
+        private final String playerId;
+        private final String resumeToken; // null if the player cannot reconnect
+        private volatile Socket frontend;
+        private volatile Socket backend;
+        private final Object nodeLock = new Object();
+        private OutputStream nodeOutput = null; // guarded by nodeLock, null until the match starts
+        private ByteArrayOutputStream earlyCommands = new ByteArrayOutputStream(); // guarded by nodeLock
+        private OutputStream frontendOutput = null; // guarded by this
+        private Deflater compressor = null; // guarded by this, null for plain text frames
+        private String lastFrame = null; // guarded by this
+        private boolean finished = false; // guarded by this
+
+        RoutedPlayer(long id, String playerId, String resumeToken) {
+            this.id = id;
+            this.playerId = playerId;
+            this.resumeToken = resumeToken;
+        }
+
+        /**
+         * Open the player's connection to the node and join the match there
+         * @param match the token shared with the opponent's connection
+         */
+        void connect(NodeInfo node, String match) throws IOException {
+            Socket socket = new Socket(node.host, node.port);
+            synchronized (this) {
+                if (finished) {
+                    closeQuietly(socket);
+                    throw new IOException("Player left before the match started");
+                }
+                backend = socket;
+            }
+            socket.setTcpNoDelay(true);
+            // The identity lets the node rate the game, and the token tells it who the opponent is
+            String hello = new Handshake(playerId, null, null, match).toLine() + "\n";
+            OutputStream out = socket.getOutputStream();
+            out.write(hello.getBytes(StandardCharsets.US_ASCII));
+            synchronized (nodeLock) {
+                earlyCommands.writeTo(out);
+                earlyCommands = null;
+                out.flush();
+                nodeOutput = out;
+            }
+        }
+
+        /**
+         * Attach a new player connection and replay the last frame it missed
+         * @param compressed true if the player negotiated compressed frames
+         * @return false if the session has already ended
+         */
+        synchronized boolean attach(Socket socket, boolean compressed) throws IOException {
+            if (finished) {
+                return false;
+            }
+            releaseCompressor();
+            socket.setTcpNoDelay(true);
+            frontend = socket;
+            if (compressed) {
+                // Each connection starts a fresh DEFLATE context, matching the player's new decompressor
+                compressor = FrameCompression.newCompressor();
+                frontendOutput = new DeflaterOutputStream(socket.getOutputStream(), compressor, 1024, true);
+            } else {
+                frontendOutput = socket.getOutputStream();
+            }
+            if (lastFrame != null) {
+                forward(lastFrame);
+            }
+            return true;
+        }
+
+        /**
+         * Copy commands from the player to the node until the player disconnects.
+         * Commands sent before the match starts are kept until the node is connected.
+         */
+        void pumpToNode() {
+            Socket socket = frontend;
+            try {
+                InputStream in = socket.getInputStream();
+                byte[] buffer = new byte[256];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    synchronized (nodeLock) {
+                        if (nodeOutput != null) {
+                            nodeOutput.write(buffer, 0, count);
+                            nodeOutput.flush();
+                        } else if (earlyCommands.size() + count <= MAX_EARLY_COMMAND_BYTES) {
+                            earlyCommands.write(buffer, 0, count);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Player connection lost
+            }
+            detach(socket);
+        }
+
+        /**
+         * Copy frames from the node to the player, remembering the last complete frame.
+         * Whole frames are forwarded in one write so each compresses as a single block.
+         */
+        void pumpToPlayer() {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(backend.getInputStream(), StandardCharsets.US_ASCII))) {
+                StringBuilder frame = new StringBuilder();
+                int frameLines = -1;
+                String line;
+
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("/")) {
+                        frame.setLength(0);
+                        frameLines = 0;
+                    }
+                    if (frameLines < 0) {
+                        // The node's answer to the HELLO is for the router, not the player
+                        if (line.startsWith(Handshake.PREFIX)) {
+                            continue;
+                        }
+                        forward(line + "\n");
+                        continue;
+                    }
+
+                    frame.append(line).append('\n');
+                    if (++frameLines == Constants.FRAME_HEIGHT) {
+                        String complete = frame.toString();
+                        synchronized (this) {
+                            lastFrame = complete;
+                            forward(complete);
+                        }
+                        frameLines = -1;
+                    }
+                }
+            } catch (IOException e) {
+                // Node connection lost
+            }
+            // The session on the node has ended
+            close();
+        }
+
+        private synchronized void forward(String text) {
+            if (frontendOutput == null) {
+                return;
+            }
+            try {
+                frontendOutput.write(text.getBytes(StandardCharsets.US_ASCII));
+                frontendOutput.flush();
+            } catch (IOException e) {
+                // The pump to the node notices the disconnect and detaches
+            }
+        }
+
+        /**
+         * Drop a player that hung up in the lobby. After its match started, keep the session
+         * on the node for a reconnect, or end it for players without a resume token.
+         */
+        private void detach(Socket socket) {
+            synchronized (this) {
+                if (frontend != socket || finished) {
+                    return;
+                }
+                frontend = null;
+                releaseCompressor();
+            }
+            closeQuietly(socket);
+
+            if (leaveLobby(this)) {
+                EventLog.log(EventLog.LOBBY_LEFT, id);
+                close();
+                return;
+            }
+            if (resumeToken == null) {
+                close();
+                return;
+            }
+
+            detachedPlayers.put(resumeToken, this);
+            scheduler.schedule(() -> {
+                if (detachedPlayers.remove(resumeToken, this)) {
+                    close();
+                }
+            }, RECONNECT_GRACE_SECONDS, TimeUnit.SECONDS);
+        }
+
+        /**
+         * End the player's part in the cluster; a match it has not joined yet cannot start
+         */
+        void close() {
+            synchronized (this) {
+                finished = true;
+                closeQuietly(frontend);
+                closeQuietly(backend);
+                releaseCompressor();
+            }
+            if (resumeToken != null) {
+                detachedPlayers.remove(resumeToken, this);
+            }
+        }
+
+        /**
+         * Free the compressor of the current player connection
+         */
+        private void releaseCompressor() {
+            if (compressor != null) {
+                compressor.end();
+                compressor = null;
+            }
+            frontendOutput = null;
+        }
+    }
+}
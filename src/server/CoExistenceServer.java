@@ -1,66 +1,433 @@
 package server;
 
-import common.Constants;
+import common.FrameCompression;
+import common.Handshake;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CoExistenceServer {
+    private static final long ANALYTICS_REPORT_MS = 60_000;
+    // The router opens both connections of a match one after the other, so the second is never far behind
+    private static final long ROUTED_MATCH_WAIT_MS = 10_000;
+
     private int port;
-    private ServerSocket serverSocket;
+    private ServerSocketChannel serverSocket;
+    private ServerEventLoop[] eventLoops;
     private ExecutorService threadPool;
-    private boolean running;
+    private ExecutorService writerPool;
+    private volatile boolean running;
+    private Thread pairingThread;
+    private final ServerLimits limits;
+    private final Matchmaker<PlayerTransport> matchmaker;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicLong connectionIds = new AtomicLong();
+    private final AtomicLong sessionIds = new AtomicLong();
+    // Players a cluster router already paired, waiting for the other half of their match by token
+    private final ConcurrentHashMap<String, PlayerTransport> routedMatches = new ConcurrentHashMap<>();
+    private volatile RatingStore ratings = null;
+    private final GameAnalytics analytics = new GameAnalytics();
+    private ScheduledExecutorService reports;
+    private volatile Path analyticsExport = null;
+
+    // Receives the matchmaker's pairs and timeouts, on the thread running it
+    private final Matchmaker.Listener<PlayerTransport> pairing = new Matchmaker.Listener<PlayerTransport>() {
+        @Override
+        public void onMatch(PlayerTransport player1, PlayerTransport player2) {
+            startSession(player1, player2);
+        }
+
+        @Override
+        public void onTimeout(PlayerTransport player) {
+            EventLog.log(EventLog.LOBBY_TIMEOUT, player.getId());
+            player.reject("NO OPPONENT FOUND");
+            openConnections.decrementAndGet();
+        }
+
+        @Override
+        public void onLeft(PlayerTransport player) {
+            EventLog.log(EventLog.LOBBY_LEFT, player.getId());
+            player.close();
+            openConnections.decrementAndGet();
+        }
+    };
 
     public CoExistenceServer(int port) {
+        this(port, new ServerLimits());
+    }
+
+    public CoExistenceServer(int port, ServerLimits limits) {
         this.port = port;
+        this.limits = limits;
+        this.matchmaker = new Matchmaker<>(limits.getMatchWindow(), limits.getMatchWindowGrowth(), limits.getMaxLobbyWaitMs());
         this.threadPool = Executors.newCachedThreadPool();
+        this.writerPool = Executors.newCachedThreadPool();
         this.running = false;
     }
 
+    /**
+     * Rate finished games between identified players. Set before start.
+     */
+    public void setRatingStore(RatingStore ratings) {
+        this.ratings = ratings;
+    }
+
+    /**
+     * Write the gameplay analytics to a CSV file with every report. Set before start.
+     */
+    public void setAnalyticsExport(Path file) {
+        this.analyticsExport = file;
+    }
+
     /**
      * Start the server
      */
     public void start() {
         try {
-            serverSocket = new ServerSocket(port);
+            serverSocket = ServerSocketChannel.open();
+            serverSocket.bind(new InetSocketAddress(port));
+            // Connections waiting for a game, and those playing, are served by a few selector threads
+            eventLoops = new ServerEventLoop[Runtime.getRuntime().availableProcessors()];
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new ServerEventLoop("player-io-" + i);
+            }
             running = true;
+            pairingThread = Thread.currentThread();
 
             System.out.println("CoExistence Server started on port " + port);
             System.out.println("Waiting for players to connect...");
+            EventLog.log(EventLog.SERVER_STARTED, port);
 
-            // Main server loop
-            while (running) {
-                // Wait for player 1
-                System.out.println("Waiting for player 1...");
-                Socket player1Socket = serverSocket.accept();
-                System.out.println("Player 1 connected: " + player1Socket.getInetAddress());
+            // Also times out players whose routed match never completes, so it exists before anyone is accepted
+            reports = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "analytics-report");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reports.scheduleAtFixedRate(this::reportAnalytics, ANALYTICS_REPORT_MS, ANALYTICS_REPORT_MS, TimeUnit.MILLISECONDS);
 
-                // Wait for player 2
-                System.out.println("Waiting for player 2...");
-                Socket player2Socket = serverSocket.accept();
-                System.out.println("Player 2 connected: " + player2Socket.getInetAddress());
+            // Connections are accepted and handshaken on other threads and arrive in the matchmaker
+            threadPool.execute(this::acceptPlayers);
 
-                // Create and start a new game session
-                GameSession gameSession = new GameSession(player1Socket, player2Socket);
-                threadPool.execute(gameSession);
-
-                System.out.println("New game session started");
-            }
+            // Pair waiting players of similar rating until the server stops
+            matchmaker.run(pairing);
 
         } catch (IOException e) {
             System.err.println("Server error: " + e.getMessage());
+            EventLog.log(EventLog.SERVER_ERROR, port, 0, e.getMessage());
+        } catch (InterruptedException e) {
+            // Stopped while waiting for players
         } finally {
             stop();
         }
     }
 
+    /**
+     * Hand the session's result to the rating store once the game is over.
+     * Only games between two identified players are rated. A player who disconnects before
+     * the game is over loses it as a forfeit, unless the server itself is stopping.
+     */
+    private void recordResult(GameSession gameSession, String player1Id, String player2Id) {
+        RatingStore store = ratings;
+        if (store == null || player1Id == null || player2Id == null) {
+            return;
+        }
+        gameSession.addGameEventListener(new GameEventListener() {
+            @Override
+            public void onGameOver(int winner) {
+                store.recordResult(player1Id, player2Id, winner);
+            }
+
+            @Override
+            public void onForfeit(int playerIndex) {
+                // Stopping closes every connection, which is nobody's forfeit
+                if (running) {
+                    store.recordForfeit(player1Id, player2Id, playerIndex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Log the gameplay analytics and export them if a file was given
+     */
+    private void reportAnalytics() {
+        GameAnalytics.Snapshot snapshot = analytics.snapshot();
+        EventLog.log(EventLog.ANALYTICS_REPORT, snapshot.getGamesFinished(), snapshot.getMoves(), snapshot.formatReport());
+
+        Path file = analyticsExport;
+        if (file == null) {
+            return;
+        }
+        try {
+            // Written aside and moved into place, so a reader never sees half a file
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temporary, snapshot.toCsv().getBytes(StandardCharsets.US_ASCII));
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            EventLog.log(EventLog.SERVER_ERROR, port, 0, "analytics export failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create and start a new game session
+     */
+    private void startSession(PlayerTransport player1, PlayerTransport player2) {
+        long sessionId = sessionIds.incrementAndGet();
+        GameSession gameSession = createSession(sessionId, player1, player2);
+        gameSession.addGameEventListener(analytics.newGameListener());
+        recordResult(gameSession, player1.getPlayerId(), player2.getPlayerId());
+        int sessions = activeSessions.incrementAndGet();
+        EventLog.log(EventLog.SESSION_STARTED, sessionId, sessions);
+
+        // The session runs on a game-logic worker picked by its id, which the I/O threads feed its commands
+        gameSession.start(() -> {
+            activeSessions.decrementAndGet();
+            openConnections.addAndGet(-2);
+        });
+    }
+
+    /**
+     * Create a session on the default game-logic workers. A Simulation creates its sessions on its own scheduler.
+     */
+    GameSession createSession(long sessionId, PlayerTransport player1, PlayerTransport player2) {
+        return new GameSession(sessionId, player1, player2, limits);
+    }
+
+    /**
+     * Get the time players are queued for matching at; the Matchmaker's run() reads the same clock
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Admit a player whose connection has already been accepted, if it fits within the
+     * connection and session limits, and queue it for matching
+     * @param description where the player came from, for the event log
+     * @return false if the player was told the server is busy
+     */
+    boolean admit(PlayerTransport player, String description) {
+        if (!reserveConnection()) {
+            player.reject("SERVER BUSY");
+            return false;
+        }
+        EventLog.log(EventLog.CONNECTION_ACCEPTED, player.getId(), 0, description);
+        enqueue(player);
+        return true;
+    }
+
+    /**
+     * Count a new connection if it fits within the connection and session limits, or log that it was turned away
+     * @return false if the server is busy, in which case the caller tells the player
+     */
+    private boolean reserveConnection() {
+        if (openConnections.get() >= limits.getMaxConnections()
+                || activeSessions.get() >= limits.getMaxSessions()) {
+            EventLog.log(EventLog.CONNECTION_REJECTED, openConnections.get(), activeSessions.get());
+            return false;
+        }
+        openConnections.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Run one round of matching without blocking, for a caller that drives the server instead of start()
+     */
+    void matchWaitingPlayers() {
+        matchmaker.match(currentTimeMillis(), pairing);
+    }
+
+    /**
+     * Accept players that fit within the connection and session limits.
+     * Players over a limit are told the server is busy and disconnected at once.
+     */
+    private void acceptPlayers() {
+        try {
+            while (running) {
+                SocketChannel channel = serverSocket.accept();
+                if (!reserveConnection()) {
+                    reject(channel, "SERVER BUSY");
+                    continue;
+                }
+
+                long id = connectionIds.incrementAndGet();
+                new HandshakeReader(id, channel, eventLoops[(int) (id % eventLoops.length)]).start();
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Server error: " + e.getMessage());
+                EventLog.log(EventLog.SERVER_ERROR, port, 0, e.getMessage());
+            }
+            stop();
+        }
+    }
+
+    /**
+     * Answer the optional handshake and hand the connection on: a multiplexed connection to
+     * a reader thread of its own, any other to its event loop as a player for matching
+     */
+    private void handshakeComplete(long id, SocketChannel channel, ServerEventLoop eventLoop, SelectionKey key,
+                                   Handshake hello) throws IOException {
+        boolean compressed = false;
+        boolean multiplexed = false;
+        String playerId = null;
+
+        if (hello != null) {
+            compressed = FrameCompression.FORMAT.equals(hello.getCompression());
+            // An id that cannot be stored is answered without one, and the player plays unrated
+            if (RatingStore.isValidId(hello.getPlayerId())) {
+                playerId = hello.getPlayerId();
+            }
+            multiplexed = Handshake.MULTIPLEX_VERSION.equals(hello.getMultiplexing());
+            Handshake accepted = new Handshake(playerId, compressed ? FrameCompression.FORMAT : null,
+                    multiplexed ? Handshake.MULTIPLEX_VERSION : null);
+            // The first write on a new connection always fits in its send buffer
+            ByteBuffer reply = ByteBuffer.wrap((accepted.toLine() + "\n").getBytes(StandardCharsets.US_ASCII));
+            channel.write(reply);
+            if (reply.hasRemaining()) {
+                throw new IOException("Handshake reply not sent");
+            }
+        }
+
+        String address = channel.socket().getRemoteSocketAddress().toString();
+        EventLog.log(EventLog.CONNECTION_ACCEPTED, id, 0, address);
+        if (multiplexed) {
+            boolean isCompressed = compressed;
+            eventLoop.deregister(key, () -> {
+                try {
+                    channel.configureBlocking(true);
+                    // A pool thread becomes the connection's reader until it closes
+                    threadPool.execute(() -> {
+                        try {
+                            new MultiplexedConnection(id, address, channel.socket(), writerPool, isCompressed,
+                                    limits.getMaxChannels(), connectionIds, new ChannelAdmission()).run();
+                        } catch (IOException e) {
+                            handshakeFailed(id, channel, e.getMessage());
+                        }
+                    });
+                } catch (IOException | RejectedExecutionException e) {
+                    handshakeFailed(id, channel, e.getMessage());
+                }
+            });
+            return;
+        }
+        // The connection takes over the channel's registration on the same loop
+        PlayerConnection connection = new PlayerConnection(id, playerId, address, channel, eventLoop, compressed);
+        if (hello != null && hello.getMatch() != null) {
+            joinRoutedMatch(hello.getMatch(), connection);
+        } else {
+            enqueue(connection);
+        }
+    }
+
+    private void handshakeFailed(long id, SocketChannel channel, String reason) {
+        EventLog.log(EventLog.HANDSHAKE_FAILED, id, 0, reason);
+        openConnections.decrementAndGet();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Already failed
+        }
+    }
+
+    /**
+     * Pair a player with the other player a cluster router matched it with, bypassing the matchmaker.
+     * The first to arrive waits a short while for the second.
+     */
+    private void joinRoutedMatch(String token, PlayerTransport player) {
+        PlayerTransport opponent = routedMatches.putIfAbsent(token, player);
+        if (opponent == null) {
+            reports.schedule(() -> {
+                if (routedMatches.remove(token, player)) {
+                    pairing.onTimeout(player);
+                }
+            }, ROUTED_MATCH_WAIT_MS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        routedMatches.remove(token, opponent);
+        startSession(opponent, player);
+    }
+
+    /**
+     * Queue a player for matching at their stored rating
+     */
+    private void enqueue(PlayerTransport player) {
+        RatingStore store = ratings;
+        String playerId = player.getPlayerId();
+        matchmaker.add(player, store != null && playerId != null ? store.getRating(playerId) : RatingStore.INITIAL_RATING,
+                currentTimeMillis());
+        player.whenLeftLobby(() -> matchmaker.remove(player));
+    }
+
+    /**
+     * Tell a player why they are being disconnected and close the socket
+     */
+    private void reject(SocketChannel channel, String reason) {
+        try (SocketChannel closing = channel) {
+            closing.write(ByteBuffer.wrap((reason + "\n").getBytes(StandardCharsets.US_ASCII)));
+        } catch (IOException e) {
+            // The player is being disconnected anyway
+        }
+    }
+
+    /**
+     * Get the number of game sessions currently being played
+     */
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    /**
+     * Get the number of players connected, whether waiting or playing
+     */
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * Get the number of players waiting for an opponent
+     */
+    public int getWaitingPlayers() {
+        return matchmaker.getWaitingCount();
+    }
+
+    /**
+     * Get gameplay statistics over every session played so far
+     */
+    public GameAnalytics getAnalytics() {
+        return analytics;
+    }
+
+    /**
+     * Describe recent match quality and wait times
+     */
+    public String getMatchmakingReport() {
+        return matchmaker.formatReport();
+    }
+
     /**
      * Stop the server
      */
     public void stop() {
         running = false;
 
+        if (pairingThread != null && pairingThread != Thread.currentThread()) {
+            pairingThread.interrupt();
+        }
+
         try {
             if (serverSocket != null) {
                 serverSocket.close();
@@ -69,8 +436,160 @@ public class CoExistenceServer {
             if (threadPool != null) {
                 threadPool.shutdown();
             }
+
+            if (writerPool != null) {
+                writerPool.shutdown();
+            }
+
+            if (reports != null) {
+                reports.shutdown();
+            }
+
+            if (eventLoops != null) {
+                for (ServerEventLoop eventLoop : eventLoops) {
+                    if (eventLoop != null) {
+                        eventLoop.close();
+                    }
+                }
+            }
         } catch (IOException e) {
             System.err.println("Error stopping server: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Waits for a new connection's optional HELLO line on the event loop the connection is
+     * assigned to, so no thread waits on a client that sends nothing. A client that sends no
+     * line before the handshake timeout is a legacy client. Reads byte by byte so nothing after
+     * the line is consumed.
+     */
+    private class HandshakeReader implements ChannelHandler {
+        private final long id;
+        private final SocketChannel channel;
+        private final ServerEventLoop eventLoop;
+        // Only used by the loop thread
+        private final ByteBuffer next = ByteBuffer.allocate(1);
+        private final StringBuilder line = new StringBuilder();
+        private SelectionKey key;
+        private ScheduledFuture<?> timeout;
+        private boolean done = false;
+
+        HandshakeReader(long id, SocketChannel channel, ServerEventLoop eventLoop) {
+            this.id = id;
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+        }
+
+        void start() {
+            try {
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                handshakeFailed(id, channel, e.getMessage());
+                return;
+            }
+            eventLoop.register(channel, this);
+        }
+
+        @Override
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public void registered(SelectionKey key) {
+            this.key = key;
+            int timeoutMs = limits.getHandshakeTimeoutMs();
+            if (timeoutMs > 0) {
+                try {
+                    timeout = reports.schedule(() -> eventLoop.execute(this::timedOut), timeoutMs, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // The server is stopping
+                    abort();
+                    return;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        @Override
+        public void handleReady(SelectionKey key, ByteBuffer readBuffer) {
+            try {
+                while (!done) {
+                    next.clear();
+                    int count = channel.read(next);
+                    if (count < 0) {
+                        throw new IOException("Connection closed during handshake");
+                    }
+                    if (count == 0) {
+                        return;
+                    }
+                    char c = (char) next.get(0);
+                    if (c == '\n') {
+                        finish(Handshake.parse(line.toString()));
+                    } else if (line.length() >= Handshake.MAX_LINE_LENGTH) {
+                        throw new IOException("Handshake line too long");
+                    } else if (c != '\r') {
+                        line.append(c);
+                    }
+                }
+            } catch (IOException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        private void timedOut() {
+            if (done) {
+                return;
+            }
+            try {
+                finish(null);
+            } catch (IOException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * @param hello the handshake, or null for a legacy client
+         */
+        private void finish(Handshake hello) throws IOException {
+            done = true;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            key.interestOps(0);
+            handshakeComplete(id, channel, eventLoop, key, hello);
+        }
+
+        private void fail(String reason) {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            done = true;
+            handshakeFailed(id, channel, reason);
+        }
+
+        @Override
+        public void abort() {
+            if (done) {
+                return;
+            }
+            fail("Server stopping");
+        }
+    }
+
+    /**
+     * Admits the channels of multiplexed connections like separate players.
+     * The connection itself counts as one open connection until it closes.
+     */
+    private class ChannelAdmission implements MultiplexedConnection.Listener {
+        @Override
+        public void onJoin(MultiplexedChannel channel) {
+            admit(channel, "channel " + channel.getNumber() + " of connection " + channel.getConnection().getId());
+        }
+
+        @Override
+        public void onClosed(MultiplexedConnection connection) {
+            openConnections.decrementAndGet();
+        }
+    }
+}
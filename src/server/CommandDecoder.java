@@ -0,0 +1,171 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes player commands straight from socket bytes, without building Strings.
+ * A command is packed into an int holding its type and, for a move, both columns.
+ * Only the first two bytes of a line matter, so a decoder keeps no line buffer and can
+ * decode from a read buffer shared by many connections. Stream users get a buffer of
+ * their own on the first read, which keeps pipelined commands that arrive together.
+ */
+public class CommandDecoder {
+    public static final int NEED_INPUT = 0;
+    public static final int PASS = 1;
+    public static final int MOVE = 2;
+    public static final int INVALID = 3;
+    public static final int END_OF_STREAM = 4;
+
+    private static final int BUFFER_SIZE = 512;
+
+    private byte[] buffer; // only for stream reads, created on first use
+    private int position = 0;
+    private int limit = 0;
+
+    // The line being decoded; only its first two bytes matter
+    private int lineLength = 0;
+    private int firstByte;
+    private int secondByte;
+    private boolean skipLineFeed = false;
+
+    /**
+     * Decode the next complete command already in the buffer
+     * @return the packed command, or NEED_INPUT if the buffer holds no complete line
+     */
+    public int next() {
+        while (position < limit) {
+            int command = accept(buffer[position++] & 0xFF);
+            if (command != NEED_INPUT) {
+                return command;
+            }
+        }
+        return NEED_INPUT;
+    }
+
+    /**
+     * Decode the next complete command from a caller's buffer, consuming the bytes it used.
+     * A line split across reads is carried over to the next call.
+     * @return the packed command, or NEED_INPUT once the buffer is used up
+     */
+    public int next(ByteBuffer input) {
+        while (input.hasRemaining()) {
+            int command = accept(input.get() & 0xFF);
+            if (command != NEED_INPUT) {
+                return command;
+            }
+        }
+        return NEED_INPUT;
+    }
+
+    private int accept(int b) {
+        // Lines end with \n, \r or \r\n, like BufferedReader.readLine
+        if (skipLineFeed) {
+            skipLineFeed = false;
+            if (b == '\n') {
+                return NEED_INPUT;
+            }
+        }
+        if (b == '\n' || b == '\r') {
+            skipLineFeed = (b == '\r');
+            return lineComplete();
+        }
+
+        if (lineLength == 0) {
+            firstByte = b;
+        } else if (lineLength == 1) {
+            secondByte = b;
+        }
+        if (lineLength < 3) {
+            lineLength++;
+        }
+        return NEED_INPUT;
+    }
+
+    /**
+     * Read more bytes once every buffered command has been decoded
+     * @return false at the end of the stream
+     */
+    public boolean fill(InputStream input) throws IOException {
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        int count = input.read(buffer, 0, buffer.length);
+        if (count < 0) {
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    /**
+     * Decode the next command, reading from the stream only when nothing is buffered
+     * @return the packed command, or END_OF_STREAM once the player disconnected
+     */
+    public int read(InputStream input) throws IOException {
+        int command;
+        while ((command = next()) == NEED_INPUT) {
+            if (!fill(input)) {
+                return END_OF_STREAM;
+            }
+        }
+        return command;
+    }
+
+    private int lineComplete() {
+        int length = lineLength;
+        lineLength = 0;
+        return length == 2 ? decode(firstByte, secondByte) : INVALID;
+    }
+
+    /**
+     * Decode a command that was already split from its line, such as the part after a channel number
+     */
+    public static int decode(byte[] line, int offset, int length) {
+        return length == 2 ? decode(line[offset] & 0xFF, line[offset + 1] & 0xFF) : INVALID;
+    }
+
+    /**
+     * Commands are "PS" or two column letters, in either case
+     */
+    private static int decode(int firstByte, int secondByte) {
+        int from = toUpperCase(firstByte);
+        int to = toUpperCase(secondByte);
+        if (from == 'P' && to == 'S') {
+            return PASS;
+        }
+        if (isLetter(from) && isLetter(to)) {
+            return move(from - 'A', to - 'A');
+        }
+        return INVALID;
+    }
+
+    private static int toUpperCase(int b) {
+        return (b >= 'a' && b <= 'z') ? b - ('a' - 'A') : b;
+    }
+
+    private static boolean isLetter(int b) {
+        return b >= 'A' && b <= 'Z';
+    }
+
+    /**
+     * Pack a move command
+     */
+    public static int move(int fromColumn, int toColumn) {
+        return MOVE | fromColumn << 8 | toColumn << 16;
+    }
+
+    public static int type(int command) {
+        return command & 0xFF;
+    }
+
+    public static int fromColumn(int command) {
+        return (command >> 8) & 0xFF;
+    }
+
+    public static int toColumn(int command) {
+        return (command >> 16) & 0xFF;
+    }
+}
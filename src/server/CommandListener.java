@@ -0,0 +1,11 @@
+package server;
+
+/**
+ * Receives a player's commands as they are decoded
+ */
+public interface CommandListener {
+    /**
+     * @param command a command packed by CommandDecoder, or CommandDecoder.END_OF_STREAM once the player disconnected
+     */
+    void onCommand(int command);
+}
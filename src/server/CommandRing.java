@@ -0,0 +1,82 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free ring carrying decoded commands from one producer thread to one
+ * GameShards worker. Each slot holds the session and the command with its player index
+ * packed on top, in plain arrays, so publishing a command allocates nothing.
+ */
+final class CommandRing {
+    private static final int PLAYER_SHIFT = 24; // commands packed by CommandDecoder use the low 24 bits
+
+    private final Thread producer;
+    private final GameSession[] sessions;
+    private final int[] commands;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next slot to read, written by the worker
+    private final AtomicLong tail = new AtomicLong(); // next slot to write, written by the producer
+
+    /**
+     * @param capacity number of slots, a power of two
+     */
+    CommandRing(Thread producer, int capacity) {
+        this.producer = producer;
+        this.sessions = new GameSession[capacity];
+        this.commands = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Add a command, from the producer thread only
+     * @return false if the ring is full
+     */
+    boolean offer(GameSession session, int playerIndex, int command) {
+        long t = tail.get();
+        if (t - head.get() == sessions.length) {
+            return false;
+        }
+        int index = (int) (t & mask);
+        sessions[index] = session;
+        commands[index] = command | playerIndex << PLAYER_SHIFT;
+        // A full volatile write, so a worker about to park either sees it or is seen as parked
+        tail.set(t + 1);
+        return true;
+    }
+
+    /**
+     * Hand every published command to its session, on the worker thread only
+     * @return the number of commands handled
+     */
+    int drain() {
+        long h = head.get();
+        long t = tail.get();
+        for (long i = h; i < t; i++) {
+            int index = (int) (i & mask);
+            GameSession session = sessions[index];
+            int packed = commands[index];
+            sessions[index] = null;
+            try {
+                session.commandReceived(packed >>> PLAYER_SHIFT, packed & ((1 << PLAYER_SHIFT) - 1));
+            } catch (RuntimeException e) {
+                // One broken game must not stop the worker from serving the rest of its shard
+                EventLog.log(EventLog.SESSION_ERROR, session.getId(), 0, String.valueOf(e));
+            }
+        }
+        if (t != h) {
+            head.lazySet(t);
+        }
+        return (int) (t - h);
+    }
+
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * Check if the ring can be dropped: its thread has ended and everything it published was handled
+     */
+    boolean isAbandoned() {
+        return !producer.isAlive() && isEmpty();
+    }
+}
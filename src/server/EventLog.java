@@ -0,0 +1,300 @@
+package server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous server event log.
+ * Session and connection threads record fixed-size events (a type and two numbers) into
+ * a lock-free ring buffer and never wait on I/O. A background thread formats the events
+ * and writes them to rotating files. When the ring is full, events are counted as dropped
+ * instead of blocking the game.
+ */
+public final class EventLog {
+    // Event types; the numbers a and b are described in FORMATS
+    public static final int SERVER_STARTED = 0;
+    public static final int CONNECTION_ACCEPTED = 1;
+    public static final int CONNECTION_REJECTED = 2;
+    public static final int HANDSHAKE_FAILED = 3;
+    public static final int LOBBY_TIMEOUT = 4;
+    public static final int SESSION_STARTED = 5;
+    public static final int SESSION_ENDED = 6;
+    public static final int SESSION_ERROR = 7;
+    public static final int SLOW_CONSUMER = 8;
+    public static final int CONNECTION_ERROR = 9;
+    public static final int SERVER_ERROR = 10;
+    public static final int MATCHMAKING_REPORT = 11;
+    public static final int ANALYTICS_REPORT = 12;
+    public static final int LOBBY_LEFT = 13;
+    public static final int ROUTER_STARTED = 14;
+    public static final int NODE_REGISTERED = 15;
+    public static final int NODE_LEFT = 16;
+    public static final int MATCH_ROUTED = 17;
+    public static final int MATCH_FAILED = 18;
+    public static final int PLAYER_RECONNECTED = 19;
+    public static final int ROUTER_JOINED = 20;
+    public static final int ROUTER_UNREACHABLE = 21;
+
+    private static final String[] FORMATS = {
+            "INFO  server started on port %d",
+            "INFO  connection %d joined the lobby",
+            "WARN  connection rejected, server busy (%d open connections, %d active sessions)",
+            "WARN  connection %d handshake failed",
+            "INFO  connection %d found no opponent",
+            "INFO  session %d started, %d active sessions",
+            "INFO  session %d ended after %d ms",
+            "WARN  session %d failed",
+            "WARN  connection %d is not reading, disconnected as a slow consumer",
+            "WARN  connection %d closed with an error",
+            "ERROR server error on port %d",
+            "INFO  matchmaking: %d matches made, %d players waiting",
+            "INFO  analytics: %d games finished, %d moves",
+            "INFO  connection %d left the lobby",
+            "INFO  cluster router started on port %d, control port %d",
+            "INFO  cluster node registered, %d nodes",
+            "INFO  cluster node left, %d nodes",
+            "INFO  connections %d and %d matched on a node",
+            "WARN  match of connections %d and %d could not be started",
+            "INFO  connection %d resumed the session of connection %d",
+            "INFO  registered with the cluster router on port %d",
+            "WARN  cluster router on port %d unreachable",
+    };
+
+    private static final int CAPACITY = 1 << 16; // events, a power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final int FIELDS = 4; // time, type, a, b
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static final String FILE_NAME = "server-events";
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final long[] events = new long[CAPACITY * FIELDS];
+    // Optional text such as an exception message; only a reference is stored
+    private static final String[] details = new String[CAPACITY];
+    // published[i] holds sequence + 1 once the event with that sequence is fully written to slot i
+    private static final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong claimed = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile long consumed = 0;
+
+    private static Thread writerThread;
+    private static volatile boolean running = false;
+
+    private EventLog() {
+    }
+
+    public static void log(int type, long a) {
+        log(type, a, 0, null);
+    }
+
+    public static void log(int type, long a, long b) {
+        log(type, a, b, null);
+    }
+
+    /**
+     * Record an event without blocking. Events are ignored until the log is started.
+     * @param detail extra text, such as an address or an exception message, or null
+     */
+    public static void log(int type, long a, long b, String detail) {
+        if (!running) {
+            return;
+        }
+
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) (sequence & MASK);
+        int base = slot * FIELDS;
+        events[base] = System.currentTimeMillis();
+        events[base + 1] = type;
+        events[base + 2] = a;
+        events[base + 3] = b;
+        details[slot] = detail;
+        published.lazySet(slot, sequence + 1);
+    }
+
+    /**
+     * Get how many events were dropped because the ring was full
+     */
+    public static long getDroppedEvents() {
+        return dropped.get();
+    }
+
+    /**
+     * Start writing events to rotating files in a directory
+     * @param maxFileBytes size at which the current file is rotated
+     * @param maxFiles number of rotated files kept besides the current one
+     */
+    public static synchronized void start(File directory, long maxFileBytes, int maxFiles) throws IOException {
+        if (running) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create log directory " + directory);
+        }
+
+        running = true;
+        RotatingWriter writer = new RotatingWriter(directory, maxFileBytes, maxFiles);
+        writerThread = new Thread(() -> writeEvents(writer), "event-log");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        // Write out whatever is still in the ring when the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(EventLog::stop, "event-log-shutdown"));
+    }
+
+    /**
+     * Write out the remaining events and stop the writer thread
+     */
+    public static synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void writeEvents(RotatingWriter writer) {
+        long reportedDrops = 0;
+        StringBuilder line = new StringBuilder(128);
+
+        try {
+            while (true) {
+                boolean stopping = !running;
+                int written = 0;
+                long next = consumed;
+
+                while (published.get((int) (next & MASK)) == next + 1) {
+                    formatEvent((int) (next & MASK), line);
+                    writer.write(line);
+                    next++;
+                    written++;
+                    if ((written & 255) == 0) {
+                        // Free space for producers without waiting for the whole batch
+                        consumed = next;
+                    }
+                }
+                consumed = next;
+
+                long drops = dropped.get();
+                if (drops != reportedDrops) {
+                    line.setLength(0);
+                    line.append(TIME_FORMAT.format(Instant.now())).append(" WARN  ")
+                            .append(drops - reportedDrops).append(" events dropped, log ring full\n");
+                    writer.write(line);
+                    reportedDrops = drops;
+                    written++;
+                }
+
+                if (written > 0) {
+                    writer.flush();
+                } else if (stopping) {
+                    break;
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Event log failed: " + e.getMessage());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void formatEvent(int slot, StringBuilder line) {
+        int base = slot * FIELDS;
+        int type = (int) events[base + 1];
+
+        line.setLength(0);
+        line.append(TIME_FORMAT.format(Instant.ofEpochMilli(events[base]))).append(' ');
+        if (type >= 0 && type < FORMATS.length) {
+            line.append(String.format(FORMATS[type], events[base + 2], events[base + 3]));
+        } else {
+            line.append("INFO  event ").append(type).append(' ').append(events[base + 2]).append(' ').append(events[base + 3]);
+        }
+
+        String detail = details[slot];
+        if (detail != null) {
+            line.append(": ").append(detail);
+            details[slot] = null;
+        }
+        line.append('\n');
+    }
+
+    /**
+     * Appends to server-events.log and shifts it to server-events.1.log and so on once it is full
+     */
+    private static class RotatingWriter {
+        private final File directory;
+        private final long maxFileBytes;
+        private final int maxFiles;
+        private Writer out;
+        private long fileBytes;
+
+        RotatingWriter(File directory, long maxFileBytes, int maxFiles) throws IOException {
+            this.directory = directory;
+            this.maxFileBytes = maxFileBytes;
+            this.maxFiles = maxFiles;
+            open();
+        }
+
+        void write(CharSequence line) throws IOException {
+            if (fileBytes + line.length() > maxFileBytes && fileBytes > 0) {
+                rotate();
+            }
+            out.append(line);
+            fileBytes += line.length();
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("Error closing event log: " + e.getMessage());
+            }
+        }
+
+        private void open() throws IOException {
+            File current = file(0);
+            fileBytes = current.length();
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(current, true), StandardCharsets.UTF_8));
+        }
+
+        private void rotate() throws IOException {
+            out.close();
+            file(maxFiles).delete();
+            for (int i = maxFiles - 1; i >= 0; i--) {
+                File from = file(i);
+                if (from.exists() && !from.renameTo(file(i + 1))) {
+                    throw new IOException("Cannot rotate " + from);
+                }
+            }
+            open();
+        }
+
+        private File file(int index) {
+            return new File(directory, index == 0 ? FILE_NAME + ".log" : FILE_NAME + "." + index + ".log");
+        }
+    }
+}
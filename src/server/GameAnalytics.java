@@ -0,0 +1,271 @@
+package server;
+
+import common.Card;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gameplay statistics aggregated over every live session: which card types win exchanges,
+ * how often arrows trade, how games end and how long they last. Sessions report through a
+ * per-game listener from their own workers; each observation is a few striped LongAdder
+ * increments, so the move path takes no lock and allocates nothing once the adders have
+ * spread over the contending threads.
+ *
+ * Totals count since the server started. The sliding window keeps the same figures for the
+ * last few minutes in one-minute slots that are reused in turn; a slot is cleared by the first
+ * observation of its new minute, so an observation racing that clear may be lost.
+ */
+public class GameAnalytics {
+    private static final int TYPES = Card.Type.values().length;
+    private static final int REASONS = InvalidMoveReason.values().length;
+    private static final long SLOT_MS = 60_000;
+    private static final int WINDOW_SLOTS = 15;
+
+    // Figures kept both in total and per window slot
+    private static final int MOVES = 0;
+    private static final int ARROW_MOVES = 1;
+    private static final int SCORING_MOVES = 2;
+    private static final int GAMES = 3;
+    private static final int SCORE_WINS = 4;
+    private static final int ROUND_LIMIT_DRAWS = 5;
+    private static final int GAME_MOVES = 6; // moves over all finished games, for the average length
+    private static final int GAME_MILLIS = 7;
+    private static final int FIGURES = 8;
+
+    private final LongAdder[] totals = newAdders(FIGURES);
+    // captures[attacker * TYPES + defender]
+    private final LongAdder[] captures = newAdders(TYPES * TYPES);
+    private final LongAdder passes = new LongAdder();
+    private final LongAdder[] invalidMoves = newAdders(REASONS);
+    private final LongAdder[][] window = new LongAdder[WINDOW_SLOTS][];
+    private final AtomicLongArray windowMinutes = new AtomicLongArray(WINDOW_SLOTS); // minute each slot holds
+
+    public GameAnalytics() {
+        for (int slot = 0; slot < WINDOW_SLOTS; slot++) {
+            window[slot] = newAdders(FIGURES);
+            windowMinutes.set(slot, -1);
+        }
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Create the listener that reports one game. Add it before the session starts.
+     */
+    public GameEventListener newGameListener() {
+        return new GameObserver();
+    }
+
+    private void add(int figure, long value, LongAdder[] slot) {
+        totals[figure].add(value);
+        slot[figure].add(value);
+    }
+
+    /**
+     * Get the window slot for the current minute, clearing it if it still holds an older minute
+     */
+    private LongAdder[] currentSlot() {
+        long minute = System.currentTimeMillis() / SLOT_MS;
+        int slot = (int) (minute % WINDOW_SLOTS);
+        long held = windowMinutes.get(slot);
+        if (held != minute && windowMinutes.compareAndSet(slot, held, minute)) {
+            for (LongAdder adder : window[slot]) {
+                adder.reset();
+            }
+        }
+        return window[slot];
+    }
+
+    /**
+     * Take a consistent-enough copy of every figure for reports and export
+     */
+    public Snapshot snapshot() {
+        long minute = System.currentTimeMillis() / SLOT_MS;
+        long[] recent = new long[FIGURES];
+        for (int slot = 0; slot < WINDOW_SLOTS; slot++) {
+            long held = windowMinutes.get(slot);
+            if (held >= 0 && minute - held < WINDOW_SLOTS) {
+                for (int figure = 0; figure < FIGURES; figure++) {
+                    recent[figure] += window[slot][figure].sum();
+                }
+            }
+        }
+        return new Snapshot(sums(totals), recent, sums(captures), passes.sum(), sums(invalidMoves));
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] values = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) {
+            values[i] = adders[i].sum();
+        }
+        return values;
+    }
+
+    /**
+     * Follows one game on its session's worker and reports into the shared counters
+     */
+    private class GameObserver implements GameEventListener {
+        private final long startedAt = System.currentTimeMillis();
+        private int moves = 0;
+
+        @Override
+        public void onMoveMade(int playerIndex, int fromColumn, int toColumn, Card.Type attacker, Card.Type defender, boolean scored) {
+            LongAdder[] slot = currentSlot();
+            moves++;
+            add(MOVES, 1, slot);
+            if (attacker == Card.Type.ARROW || defender == Card.Type.ARROW) {
+                add(ARROW_MOVES, 1, slot);
+            }
+            if (scored) {
+                add(SCORING_MOVES, 1, slot);
+            }
+            captures[attacker.ordinal() * TYPES + defender.ordinal()].increment();
+        }
+
+        @Override
+        public void onInvalidMove(int playerIndex, InvalidMoveReason reason) {
+            invalidMoves[reason.ordinal()].increment();
+        }
+
+        @Override
+        public void onPassed(int playerIndex) {
+            passes.increment();
+        }
+
+        @Override
+        public void onGameOver(int winner) {
+            LongAdder[] slot = currentSlot();
+            add(GAMES, 1, slot);
+            // A game without a winner ran out of rounds, the draw rule in GameState.pass
+            add(winner >= 0 ? SCORE_WINS : ROUND_LIMIT_DRAWS, 1, slot);
+            add(GAME_MOVES, moves, slot);
+            add(GAME_MILLIS, System.currentTimeMillis() - startedAt, slot);
+        }
+    }
+
+    /**
+     * The figures at one moment
+     */
+    public static class Snapshot {
+        private final long[] totals;
+        private final long[] recent;
+        private final long[] captures;
+        private final long passes;
+        private final long[] invalidMoves;
+
+        Snapshot(long[] totals, long[] recent, long[] captures, long passes, long[] invalidMoves) {
+            this.totals = totals;
+            this.recent = recent;
+            this.captures = captures;
+            this.passes = passes;
+            this.invalidMoves = invalidMoves;
+        }
+
+        public long getMoves() { return totals[MOVES]; }
+        public long getArrowMoves() { return totals[ARROW_MOVES]; }
+        public long getScoringMoves() { return totals[SCORING_MOVES]; }
+        public long getGamesFinished() { return totals[GAMES]; }
+        public long getScoreWins() { return totals[SCORE_WINS]; }
+        public long getRoundLimitDraws() { return totals[ROUND_LIMIT_DRAWS]; }
+        public long getPasses() { return passes; }
+
+        /**
+         * Get how often a card type took another
+         */
+        public long getCaptures(Card.Type attacker, Card.Type defender) {
+            return captures[attacker.ordinal() * TYPES + defender.ordinal()];
+        }
+
+        /**
+         * Get how many captures a card type made, against any card
+         */
+        public long getExchangesWon(Card.Type type) {
+            long won = 0;
+            for (int defender = 0; defender < TYPES; defender++) {
+                won += captures[type.ordinal() * TYPES + defender];
+            }
+            return won;
+        }
+
+        public long getInvalidMoves(InvalidMoveReason reason) {
+            return invalidMoves[reason.ordinal()];
+        }
+
+        /**
+         * Get the average number of moves in a finished game, overall or over the recent window
+         */
+        public double getAverageGameMoves(boolean recentOnly) {
+            long[] figures = recentOnly ? recent : totals;
+            return figures[GAMES] == 0 ? 0 : (double) figures[GAME_MOVES] / figures[GAMES];
+        }
+
+        /**
+         * Get the average duration of a finished game in seconds, overall or over the recent window
+         */
+        public double getAverageGameSeconds(boolean recentOnly) {
+            long[] figures = recentOnly ? recent : totals;
+            return figures[GAMES] == 0 ? 0 : figures[GAME_MILLIS] / 1000.0 / figures[GAMES];
+        }
+
+        /**
+         * Describe the figures on one line, for the event log
+         */
+        public String formatReport() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("%d games (%d won on points, %d drawn at the round limit), "
+                            + "avg %.1f moves %.0f s; last %d min: %d games, %d moves, avg %.1f moves; "
+                            + "%d moves, %.1f%% with an arrow, %d passes; exchanges won",
+                    getGamesFinished(), getScoreWins(), getRoundLimitDraws(),
+                    getAverageGameMoves(false), getAverageGameSeconds(false),
+                    WINDOW_SLOTS, recent[GAMES], recent[MOVES], getAverageGameMoves(true),
+                    getMoves(), percent(getArrowMoves(), getMoves()), passes));
+            for (Card.Type type : Card.Type.values()) {
+                report.append(' ').append(type).append('=').append(getExchangesWon(type));
+            }
+            return report.toString();
+        }
+
+        /**
+         * Write every figure as "name,value" lines, for export to other tools
+         */
+        public String toCsv() {
+            StringBuilder csv = new StringBuilder("name,value\n");
+            csv.append("moves,").append(getMoves()).append('\n');
+            csv.append("arrow_moves,").append(getArrowMoves()).append('\n');
+            csv.append("scoring_moves,").append(getScoringMoves()).append('\n');
+            csv.append("passes,").append(passes).append('\n');
+            csv.append("games_finished,").append(getGamesFinished()).append('\n');
+            csv.append("score_wins,").append(getScoreWins()).append('\n');
+            csv.append("round_limit_draws,").append(getRoundLimitDraws()).append('\n');
+            csv.append("avg_game_moves,").append(getAverageGameMoves(false)).append('\n');
+            csv.append("avg_game_seconds,").append(getAverageGameSeconds(false)).append('\n');
+            csv.append("recent_games,").append(recent[GAMES]).append('\n');
+            csv.append("recent_moves,").append(recent[MOVES]).append('\n');
+            csv.append("recent_arrow_moves,").append(recent[ARROW_MOVES]).append('\n');
+            csv.append("recent_score_wins,").append(recent[SCORE_WINS]).append('\n');
+            csv.append("recent_round_limit_draws,").append(recent[ROUND_LIMIT_DRAWS]).append('\n');
+            csv.append("recent_avg_game_moves,").append(getAverageGameMoves(true)).append('\n');
+            for (Card.Type attacker : Card.Type.values()) {
+                for (Card.Type defender : Card.Type.values()) {
+                    csv.append("captures_").append(attacker).append('_').append(defender).append(',')
+                            .append(getCaptures(attacker, defender)).append('\n');
+                }
+            }
+            for (InvalidMoveReason reason : InvalidMoveReason.values()) {
+                csv.append("invalid_").append(reason).append(',').append(getInvalidMoves(reason)).append('\n');
+            }
+            return csv.toString();
+        }
+
+        private static double percent(long part, long whole) {
+            return whole == 0 ? 0 : part * 100.0 / whole;
+        }
+    }
+}
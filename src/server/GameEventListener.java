@@ -0,0 +1,37 @@
+package server;
+
+import common.Card;
+
+/**
+ * Receives what happens in a GameState as it happens, as typed events instead of log text.
+ * Events are delivered on the thread that changed the state, before the change returns.
+ */
+public interface GameEventListener {
+    /**
+     * A card took an opponent card
+     * @param scored true if the capture earned the player a point
+     */
+    default void onMoveMade(int playerIndex, int fromColumn, int toColumn, Card.Type attacker, Card.Type defender, boolean scored) {}
+
+    /**
+     * A move or command was rejected without changing the game
+     */
+    default void onInvalidMove(int playerIndex, InvalidMoveReason reason) {}
+
+    default void onPassed(int playerIndex) {}
+
+    /**
+     * A new round was dealt after both players passed
+     */
+    default void onRoundStarted(int roundNumber) {}
+
+    /**
+     * @param winner 0 for player1, 1 for player2, or -1 for a draw
+     */
+    default void onGameOver(int winner) {}
+
+    /**
+     * A player left before the game was over and loses it. No game over follows.
+     */
+    default void onForfeit(int playerIndex) {}
+}
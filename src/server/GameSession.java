@@ -1,149 +1,300 @@
 package server;
 
-import common.Constants;
-import common.Utils;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
-
-public class GameSession implements Runnable {
-    private Socket player1Socket;
-    private Socket player2Socket;
-    private BufferedReader player1Input;
-    private BufferedReader player2Input;
-    private PrintWriter player1Output;
-    private PrintWriter player2Output;
+import java.util.Random;
+
+/**
+ * A game between two players, driven by their commands as they arrive rather than by a
+ * thread of its own. Everything a session does, timers included, runs on its worker, normally
+ * a GameShards shard, so its state is never touched by two threads and needs no lock; a command
+ * from the player who is not on turn waits until that player's turn comes.
+ */
+public class GameSession {
+    // Commands a player may have waiting for their turn; more are dropped like commands over the rate
+    private static final int MAX_PENDING_COMMANDS = 16;
+
+    private final long id;
+    private PlayerTransport player1;
+    private PlayerTransport player2;
     private GameState gameState;
     private boolean gameRunning;
+    private ServerLimits limits;
+    private TokenBucket player1Commands;
+    private TokenBucket player2Commands;
+    private final SessionWorker worker;
 
-    public GameSession(Socket player1Socket, Socket player2Socket) {
-        this.player1Socket = player1Socket;
-        this.player2Socket = player2Socket;
-        this.gameState = new GameState();
-        this.gameRunning = true;
+    // Only used on the worker
+    private PendingCommands player1Pending; // null while none are waiting
+    private PendingCommands player2Pending;
+    private boolean delayed = false; // a command over the rate is waiting on a timer
+    private boolean ended = false;
+    private long startedAt;
+    private Runnable whenEnded;
 
-        try {
-            // Initialize input/output streams
-            player1Input = new BufferedReader(new InputStreamReader(player1Socket.getInputStream()));
-            player2Input = new BufferedReader(new InputStreamReader(player2Socket.getInputStream()));
+    /**
+     * @param id number identifying the session in the event log
+     * @param limits the per-connection command rate limits
+     */
+    public GameSession(long id, PlayerTransport player1, PlayerTransport player2, ServerLimits limits) {
+        this(id, player1, player2, limits, GameShards.getDefault());
+    }
 
-            player1Output = new PrintWriter(player1Socket.getOutputStream(), true);
-            player2Output = new PrintWriter(player2Socket.getOutputStream(), true);
+    /**
+     * @param shards the logic workers to run on, picked by the session id
+     */
+    public GameSession(long id, PlayerTransport player1, PlayerTransport player2, ServerLimits limits,
+                       GameShards shards) {
+        this(id, player1, player2, limits, shards.shardFor(id), new Random());
+    }
 
-        } catch (IOException e) {
-            System.err.println("Error setting up game session: " + e.getMessage());
-            closeConnections();
-        }
+    /**
+     * @param worker runs the session and supplies its clock
+     * @param random source of the starting player and the deals
+     */
+    GameSession(long id, PlayerTransport player1, PlayerTransport player2, ServerLimits limits,
+                SessionWorker worker, Random random) {
+        this.id = id;
+        this.player1 = player1;
+        this.player2 = player2;
+        this.gameState = new GameState(random);
+        this.gameRunning = true;
+        this.limits = limits;
+        this.worker = worker;
+        long now = worker.nanoTime();
+        this.player1Commands = new TokenBucket(limits.getCommandsPerSecond(), limits.getCommandBurst(), now);
+        this.player2Commands = new TokenBucket(limits.getCommandsPerSecond(), limits.getCommandBurst(), now);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Follow the game's events, for example to record its result. Call before start.
+     */
+    public void addGameEventListener(GameEventListener listener) {
+        gameState.addListener(listener);
     }
 
-    @Override
-    public void run() {
-        System.out.println("Starting new game session");
+    /**
+     * Send both players the opening state and start taking their commands, on the session's worker
+     * @param whenEnded run once both connections have been closed
+     */
+    public void start(Runnable whenEnded) {
+        worker.execute(() -> {
+            this.whenEnded = whenEnded;
+            this.startedAt = worker.nanoTime();
+
+            // Transports only decode; the commands are played on this session's worker, after this task.
+            // Listening before the first frame goes out means no reply to it can arrive unheard.
+            player1.start(command -> {
+                TurnEvents.commandReceived(id, 0, player1.getId(), command);
+                worker.publish(this, 0, command);
+            });
+            player2.start(command -> {
+                TurnEvents.commandReceived(id, 1, player2.getId(), command);
+                worker.publish(this, 1, command);
+            });
 
-        try {
             // Send initial game state to both players
-            sendGameStateToPlayers();
+            sendGameStateToPlayers(-1);
+        });
+    }
 
-            // Main game loop
-            while (gameRunning && !gameState.isGameOver()) {
-                // Get current player
-                int currentPlayer = gameState.getCurrentPlayer();
+    /**
+     * Queue a player's command and handle every command that is now on turn, on the session's worker
+     */
+    void commandReceived(int playerIndex, int command) {
+        if (!gameRunning) {
+            return;
+        }
 
-                // Wait for input from the current player
-                String command;
-                if (currentPlayer == 0) {
-                    command = player1Input.readLine();
-                } else {
-                    command = player2Input.readLine();
-                }
+        if (command == CommandDecoder.END_OF_STREAM) {
+            // Player disconnected; the game ends whoever is on turn, and the player who left loses it
+            gameState.forfeit(playerIndex);
+            processCommand(playerIndex, command);
+            sendGameStateToPlayers(playerIndex);
+            endGame();
+            return;
+        }
+
+        PendingCommands pending = playerIndex == 0 ? player1Pending : player2Pending;
+        if (pending == null) {
+            pending = new PendingCommands();
+            if (playerIndex == 0) {
+                player1Pending = pending;
+            } else {
+                player2Pending = pending;
+            }
+        }
+        pending.add(command);
+        processPending();
+    }
 
+    /**
+     * Process the current player's waiting commands until the turn passes to a player with none
+     */
+    private void processPending() {
+        while (gameRunning && !delayed && !gameState.isGameOver()) {
+            // Get current player
+            int currentPlayer = gameState.getCurrentPlayer();
+            PendingCommands pending = currentPlayer == 0 ? player1Pending : player2Pending;
+            if (pending == null) {
+                return;
+            }
+
+            // Commands over the player's rate are delayed or dropped before any work is done
+            if (!admitCommand(currentPlayer == 0 ? player1Commands : player2Commands)) {
+                if (delayed) {
+                    return;
+                }
+                pending.remove();
+            } else {
                 // Process the command
+                int command = pending.remove();
+                TurnEvents.RuleEvaluation trace = TurnEvents.beginRuleEvaluation();
                 processCommand(currentPlayer, command);
+                TurnEvents.endRuleEvaluation(trace, id, currentPlayer,
+                        (currentPlayer == 0 ? player1 : player2).getId(), command);
 
                 // Send updated game state to both players
-                sendGameStateToPlayers();
+                sendGameStateToPlayers(currentPlayer);
             }
 
-            // Game is over, wait a moment before closing
-            Thread.sleep(5000);
+            // Waiting commands take no memory once used up
+            if (pending.isEmpty()) {
+                if (currentPlayer == 0) {
+                    player1Pending = null;
+                } else {
+                    player2Pending = null;
+                }
+            }
+        }
 
-        } catch (IOException e) {
-            System.err.println("Communication error: " + e.getMessage());
-        } catch (InterruptedException e) {
-            System.err.println("Game session interrupted: " + e.getMessage());
-        } finally {
-            closeConnections();
+        if (gameState.isGameOver()) {
+            endGame();
         }
     }
 
     /**
      * Process a command from a player
      */
-    private void processCommand(int playerIndex, String command) {
-        if (command == null) {
-            // Player disconnected
-            gameRunning = false;
-            return;
+    private void processCommand(int playerIndex, int command) {
+        switch (CommandDecoder.type(command)) {
+            case CommandDecoder.END_OF_STREAM:
+                // Player disconnected
+                gameRunning = false;
+                break;
+            case CommandDecoder.PASS:
+                gameState.pass(playerIndex);
+                break;
+            case CommandDecoder.MOVE:
+                gameState.makeMove(playerIndex, CommandDecoder.fromColumn(command), CommandDecoder.toColumn(command));
+                break;
+            default:
+                // The frame is sent afterwards, like for every other command
+                gameState.rejectCommand(playerIndex);
         }
+    }
 
-        // Convert to uppercase
-        command = command.toUpperCase();
-
-        // Check if it's a pass command
-        if (command.equals("PS")) {
-            gameState.pass(playerIndex);
-            return;
+    /**
+     * Apply the rate limit to a command
+     * @return true if the command should be processed, false if it was dropped or delayed
+     */
+    private boolean admitCommand(TokenBucket bucket) {
+        if (bucket.tryAcquire(worker.nanoTime())) {
+            return true;
+        }
+        if (!limits.isDelayExcessCommands()) {
+            return false;
         }
 
-        // Check if it's a move command (two letters)
-        if (Utils.isValidMoveFormat(command)) {
-            char fromChar = command.charAt(0);
-            char toChar = command.charAt(1);
-
-            int fromColumn = Utils.columnToIndex(fromChar);
-            int toColumn = Utils.columnToIndex(toChar);
-
-            gameState.makeMove(playerIndex, fromColumn, toColumn);
+        // Commands keep queuing behind the delayed one until the timer retries it
+        delayed = true;
+        worker.schedule(this::delayElapsed, bucket.nanosUntilAvailable(worker.nanoTime()));
+        return false;
+    }
 
+    private void delayElapsed() {
+        delayed = false;
+        processPending();
+    }
 
+    /**
+     * Stop taking commands and close the connections once the game-over frame has had time to be seen
+     */
+    private void endGame() {
+        if (ended) {
             return;
         }
-        else{
-            gameState.setLastLogMessage("SYNTAX ERROR");
-            sendGameStateToPlayers();
-        }
-
-
+        ended = true;
+        gameRunning = false;
+        player1Pending = null;
+        player2Pending = null;
 
+        // Game is over, wait a moment before closing
+        long linger = limits.getGameOverLingerMs();
+        if (linger > 0) {
+            worker.schedule(this::closeConnections, linger * 1_000_000);
+        } else {
+            closeConnections();
+        }
     }
 
     /**
      * Send the current game state to both players
+     * @param playerIndex the player whose command changed the state, or -1 for the opening state
      */
-    private void sendGameStateToPlayers() {
-        String player1Frame = MessageFormatter.generateMessageFrame(gameState, true);
-        String player2Frame = MessageFormatter.generateMessageFrame(gameState, false);
-
-        player1Output.println(player1Frame);
-        player2Output.println(player2Frame);
+    private void sendGameStateToPlayers(int playerIndex) {
+        TurnEvents.FramesSent trace = TurnEvents.beginFramesSent();
+        // Queued per connection, so a player who stopped reading cannot hold up the other
+        player1.sendState(gameState, true);
+        player2.sendState(gameState, false);
+        TurnEvents.endFramesSent(trace, id, playerIndex);
     }
 
     /**
-     * Close all connections
+     * Close all connections once their queued frames are written
      */
     private void closeConnections() {
-        try {
-            if (player1Input != null) player1Input.close();
-            if (player2Input != null) player2Input.close();
-            if (player1Output != null) player1Output.close();
-            if (player2Output != null) player2Output.close();
-            if (player1Socket != null) player1Socket.close();
-            if (player2Socket != null) player2Socket.close();
-        } catch (IOException e) {
-            System.err.println("Error closing connections: " + e.getMessage());
+        player1.close();
+        player2.close();
+        EventLog.log(EventLog.SESSION_ENDED, id, (worker.nanoTime() - startedAt) / 1_000_000);
+        whenEnded.run();
+    }
+
+    /**
+     * A player's commands that arrived before their turn, in a ring that grows up to the limit
+     */
+    private static final class PendingCommands {
+        private int[] commands = new int[2];
+        private int head = 0;
+        private int size = 0;
+
+        void add(int command) {
+            if (size == commands.length) {
+                if (size == MAX_PENDING_COMMANDS) {
+                    return;
+                }
+                int[] grown = new int[size * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = commands[(head + i) % commands.length];
+                }
+                commands = grown;
+                head = 0;
+            }
+            commands[(head + size) % commands.length] = command;
+            size++;
+        }
+
+        int remove() {
+            int command = commands[head];
+            head = (head + 1) % commands.length;
+            size--;
+            return command;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
         }
     }
-}
\ No newline at end of file
+}
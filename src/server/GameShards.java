@@ -0,0 +1,204 @@
+package server;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed set of game-logic worker threads, one per core by default. Every session belongs to
+ * the shard picked by its id, and all of its commands, rule evaluation and frame rendering run
+ * on that shard's worker, so a game's state stays on one core and needs no locks.
+ *
+ * I/O threads only decode. Each thread that publishes commands gets a single-producer ring per
+ * shard the first time it publishes; the worker drains its rings in turn and parks when all are
+ * empty. Less frequent work, such as starting a session or a timer firing, goes through a task queue.
+ */
+public class GameShards implements Closeable {
+    private static final int RING_CAPACITY = 1024;
+    // Empty polls before a worker parks, since the next command usually follows quickly
+    private static final int SPINS = 100;
+    // Worker iterations between checks for rings whose producer thread has ended
+    private static final int CLEANUP_INTERVAL = 4096;
+
+    // Rate limit delays and the game-over linger for every session, so a waiting session holds no thread
+    private static final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "session-timers");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static GameShards defaultShards;
+
+    private final Shard[] shards;
+    // The calling thread's ring for each shard, created on its first command to that shard
+    private final ThreadLocal<CommandRing[]> producerRings;
+    private volatile boolean running = true;
+
+    public GameShards(int count, String name) {
+        this.shards = new Shard[count];
+        this.producerRings = ThreadLocal.withInitial(() -> new CommandRing[count]);
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(i, name + "-" + i);
+        }
+    }
+
+    /**
+     * Get the process-wide shards used when a session is not given any explicitly
+     */
+    public static synchronized GameShards getDefault() {
+        if (defaultShards == null) {
+            defaultShards = new GameShards(Runtime.getRuntime().availableProcessors(), "game-logic");
+        }
+        return defaultShards;
+    }
+
+    /**
+     * Get the shard that runs a session
+     */
+    Shard shardFor(long sessionId) {
+        return shards[(int) Math.floorMod(sessionId, (long) shards.length)];
+    }
+
+    /**
+     * Stop every worker; commands still queued are not handled
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.worker);
+        }
+    }
+
+    /**
+     * One worker thread and the rings and tasks that feed it
+     */
+    final class Shard implements SessionWorker {
+        private final int index;
+        private final Thread worker;
+        private final CopyOnWriteArrayList<CommandRing> rings = new CopyOnWriteArrayList<>();
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean parked = false;
+
+        Shard(int index, String name) {
+            this.index = index;
+            this.worker = new Thread(this::run, name);
+            this.worker.setDaemon(true);
+            this.worker.start();
+        }
+
+        /**
+         * Hand a player's command to its session on this shard's worker
+         */
+        @Override
+        public void publish(GameSession session, int playerIndex, int command) {
+            if (Thread.currentThread() == worker) {
+                // Delivered while the worker itself was calling the transport, for example on start
+                session.commandReceived(playerIndex, command);
+                return;
+            }
+
+            CommandRing[] ownRings = producerRings.get();
+            CommandRing ring = ownRings[index];
+            if (ring == null) {
+                ring = new CommandRing(Thread.currentThread(), RING_CAPACITY);
+                ownRings[index] = ring;
+                rings.add(ring);
+            }
+            // A full ring pushes back on the I/O thread rather than reordering or dropping commands
+            while (!ring.offer(session, playerIndex, command)) {
+                wake();
+                Thread.yield();
+            }
+            wake();
+        }
+
+        /**
+         * Run a task on this shard's worker
+         */
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != worker) {
+                wake();
+            }
+        }
+
+        /**
+         * Run a task on this shard's worker once the shared timer thread has waited out the delay
+         */
+        @Override
+        public void schedule(Runnable task, long delayNanos) {
+            timers.schedule(() -> execute(task), delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        private void wake() {
+            if (parked) {
+                LockSupport.unpark(worker);
+            }
+        }
+
+        private void run() {
+            int idle = 0;
+            int iterations = 0;
+
+            while (running) {
+                int work = runTasks();
+                for (CommandRing ring : rings) {
+                    work += ring.drain();
+                }
+
+                if (++iterations == CLEANUP_INTERVAL) {
+                    iterations = 0;
+                    rings.removeIf(CommandRing::isAbandoned);
+                }
+
+                if (work > 0) {
+                    idle = 0;
+                } else if (++idle < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    park();
+                    idle = 0;
+                }
+            }
+        }
+
+        private void park() {
+            parked = true;
+            // Anything published before the flag was visible would otherwise wait for the next command
+            boolean empty = tasks.isEmpty();
+            for (CommandRing ring : rings) {
+                empty &= ring.isEmpty();
+            }
+            if (empty && running) {
+                LockSupport.park(this);
+            }
+            parked = false;
+        }
+
+        private int runTasks() {
+            int count = 0;
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    EventLog.log(EventLog.SERVER_ERROR, 0, 0, "game logic task failed: " + e);
+                }
+                count++;
+            }
+            return count;
+        }
+    }
+}
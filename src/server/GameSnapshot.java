@@ -0,0 +1,46 @@
+package server;
+
+import common.Card;
+
+/**
+ * Immutable copy of a game state as seen by one player, sent to players in the same JVM
+ * instead of a rendered text frame.
+ */
+public class GameSnapshot {
+    private final Card[] myCards = new Card[6];
+    private final Card[] opponentCards = new Card[6];
+    private final int myScore;
+    private final int opponentScore;
+    private final int roundNumber;
+    private final boolean myTurn;
+    private final boolean gameOver;
+    private final String logMessage;
+
+    public GameSnapshot(GameState state, boolean forPlayer1) {
+        state.getPlayer1Hand().toArray(forPlayer1 ? myCards : opponentCards);
+        state.getPlayer2Hand().toArray(forPlayer1 ? opponentCards : myCards);
+        this.myScore = forPlayer1 ? state.getPlayer1Score() : state.getPlayer2Score();
+        this.opponentScore = forPlayer1 ? state.getPlayer2Score() : state.getPlayer1Score();
+        this.roundNumber = state.getRoundNumber();
+        this.myTurn = state.getCurrentPlayer() == (forPlayer1 ? 0 : 1);
+        this.gameOver = state.isGameOver();
+        this.logMessage = state.getLastLogMessage();
+    }
+
+    /**
+     * @return the card in one of our columns (0-5), or null if the slot is empty
+     */
+    public Card getMyCard(int column) { return myCards[column]; }
+
+    /**
+     * @return the card in one of the opponent's columns (0-5), or null if the slot is empty
+     */
+    public Card getOpponentCard(int column) { return opponentCards[column]; }
+
+    public int getMyScore() { return myScore; }
+    public int getOpponentScore() { return opponentScore; }
+    public int getRoundNumber() { return roundNumber; }
+    public boolean isMyTurn() { return myTurn; }
+    public boolean isGameOver() { return gameOver; }
+    public String getLogMessage() { return logMessage; }
+}
@@ -1,23 +1,61 @@
 package server;
 
+import common.Card;
+import common.Constants;
+
 import java.util.*;
 
 public class GameState {
-    private List<Card> deck;
-    private List<Card> player1Hand;
-    private List<Card> player2Hand;
+    // What the last action was, kept compact; the log text is only built when a frame asks for it
+    private static final int ACTION_NEW_GAME = 0;
+    private static final int ACTION_NEW_ROUND = 1;
+    private static final int ACTION_MOVE = 2;
+    private static final int ACTION_PASS = 3;
+    private static final int ACTION_INVALID = 4;
+
+    private static final int HAND_SIZE = 6;
+    // The standard deck of 16 cards, 4 of each type, in the order it is shuffled from
+    private static final Card[] DECK = new Card[16];
+
+    static {
+        for (int i = 0; i < 4; i++) {
+            DECK[i * 4] = Card.of(Card.Type.AXE);
+            DECK[i * 4 + 1] = Card.of(Card.Type.HAMMER);
+            DECK[i * 4 + 2] = Card.of(Card.Type.SWORD);
+            DECK[i * 4 + 3] = Card.of(Card.Type.ARROW);
+        }
+    }
+
+    // Fixed-size views over the hands' slots; an empty slot is null
+    private final List<Card> player1Hand = Arrays.asList(new Card[HAND_SIZE]);
+    private final List<Card> player2Hand = Arrays.asList(new Card[HAND_SIZE]);
     private int player1Score;
     private int player2Score;
     private int currentPlayer; // 0 for player1, 1 for player2
     private int roundNumber;
     private boolean player1Passed;
     private boolean player2Passed;
-    private String lastLogMessage;
     private boolean gameOver;
+    private int winner = -1;
+    private final Random random;
+    private final List<GameEventListener> listeners = new ArrayList<>();
+
+    private int lastAction;
+    private Card.Type lastAttacker;
+    private Card.Type lastDefender;
+    private InvalidMoveReason lastRejection;
+    private String lastLogMessage; // built from the last action on first use
 
     public GameState() {
-        player1Hand = new ArrayList<>();
-        player2Hand = new ArrayList<>();
+        this(new Random());
+    }
+
+    /**
+     * Create a game whose starting player and deals all come from the given random source,
+     * so a game can be replayed from a seed
+     */
+    public GameState(Random random) {
+        this.random = random;
         initializeGame();
     }
 
@@ -31,15 +69,12 @@ public class GameState {
         player1Passed = false;
         player2Passed = false;
         gameOver = false;
-        lastLogMessage = "NEW GAME";
+        setLastAction(ACTION_NEW_GAME);
 
         // Randomly determine starting player
-        Random random = new Random();
         currentPlayer = random.nextInt(2);
 
         // Initialize the game without changing the message
-        createDeck();
-        shuffleDeck();
         dealCards();
     }
 
@@ -47,51 +82,38 @@ public class GameState {
      * Start a new round: shuffle the deck and deal cards
      */
     private void startNewRound() {
-        createDeck();
-        shuffleDeck();
         dealCards();
         player1Passed = false;
         player2Passed = false;
 
         // when round is at least 2, then shows new round instead of new game
         if (roundNumber > 1) {
-            lastLogMessage = "NEW ROUND";
+            setLastAction(ACTION_NEW_ROUND);
         }
-    }
-
-    /**
-     * Create the standard deck of 12 cards
-     */
-    private void createDeck() {
-        deck = new ArrayList<>();
-
-        // Add 4 of each type
-        for (int i = 0; i < 4; i++) {
-            deck.add(new Card(Card.Type.AXE));
-            deck.add(new Card(Card.Type.HAMMER));
-            deck.add(new Card(Card.Type.SWORD));
-            deck.add(new Card(Card.Type.ARROW));
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onRoundStarted(roundNumber);
         }
     }
 
     /**
-     * Shuffle the deck
-     */
-    private void shuffleDeck() {
-        Collections.shuffle(deck);
-    }
-
-    /**
-     * Deal 6 cards to each player
+     * Shuffle a fresh deck and deal 6 cards to each player, alternating like dealing from the top.
+     * The deck only lives for the deal and cards are shared, so a game holds just its two hands.
      */
     private void dealCards() {
-        player1Hand.clear();
-        player2Hand.clear();
+        Card[] deck = DECK.clone();
+
+        // The same swaps as Collections.shuffle, so a seed deals the same games as before
+        for (int i = deck.length; i > 1; i--) {
+            int j = random.nextInt(i);
+            Card card = deck[i - 1];
+            deck[i - 1] = deck[j];
+            deck[j] = card;
+        }
 
         //6 cards for each player
-        for (int i = 0; i < 6; i++) {
-            player1Hand.add(deck.remove(0));
-            player2Hand.add(deck.remove(0));
+        for (int i = 0; i < HAND_SIZE; i++) {
+            player1Hand.set(i, deck[i * 2]);
+            player2Hand.set(i, deck[i * 2 + 1]);
         }
     }
 
@@ -104,12 +126,12 @@ public class GameState {
      */
     public boolean makeMove(int playerIndex, int fromColumn, int toColumn) {
         if (gameOver) {
-            lastLogMessage = "GAME OVER";
+            reject(playerIndex, InvalidMoveReason.GAME_OVER);
             return false;
         }
 
         if (fromColumn < 0 || fromColumn >= 6 || toColumn < 0 || toColumn >= 6) {
-            lastLogMessage = "INVALID MOVE: OUT OF BOUNDS";
+            reject(playerIndex, InvalidMoveReason.OUT_OF_BOUNDS);
             return false;
         }
 
@@ -120,13 +142,19 @@ public class GameState {
         Card attacker = attackerHand.get(fromColumn);
         Card defender = defenderHand.get(toColumn);
 
+        if (attacker == null || defender == null) {
+            reject(playerIndex, InvalidMoveReason.EMPTY_SLOT);
+            return false;
+        }
+
         if (!attacker.canDefeat(defender)) {
-            lastLogMessage = "INVALID MOVE: CANNOT DEFEAT TARGET";
+            reject(playerIndex, InvalidMoveReason.CANNOT_DEFEAT_TARGET);
             return false;
         }
 
         // Valid move, execute it
-        if (defender.earnsPoints(attacker)) {
+        boolean scored = defender.earnsPoints(attacker);
+        if (scored) {
             if (playerIndex == 0) {
                 player1Score++;
             } else {
@@ -138,7 +166,12 @@ public class GameState {
         defenderHand.set(toColumn, null);
 
         // Update log message
-        lastLogMessage = attacker.getType() + " TAKES " + defender.getType();
+        lastAttacker = attacker.getType();
+        lastDefender = defender.getType();
+        setLastAction(ACTION_MOVE);
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onMoveMade(playerIndex, fromColumn, toColumn, lastAttacker, lastDefender, scored);
+        }
 
         // Switch turn to other player
         currentPlayer = 1 - currentPlayer;
@@ -163,12 +196,12 @@ public class GameState {
      */
     public boolean pass(int playerIndex) {
         if (gameOver) {
-            lastLogMessage = "GAME OVER";
+            reject(playerIndex, InvalidMoveReason.GAME_OVER);
             return false;
         }
 
         if (playerIndex != currentPlayer) {
-            lastLogMessage = "NOT YOUR TURN";
+            reject(playerIndex, InvalidMoveReason.NOT_YOUR_TURN);
             return false;
         }
 
@@ -179,7 +212,10 @@ public class GameState {
             player2Passed = true;
         }
 
-        lastLogMessage = "PLAYER PASSED";
+        setLastAction(ACTION_PASS);
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onPassed(playerIndex);
+        }
 
         // Switch turn to other player
         currentPlayer = 1 - currentPlayer;
@@ -189,9 +225,8 @@ public class GameState {
             roundNumber++;
 
             // Check if we've reached max rounds (if we hit 5 rounds or not)
-            if (roundNumber >= 5) {
-                gameOver = true;
-                lastLogMessage = "GAME OVER - DRAW";
+            if (roundNumber >= Constants.MAX_ROUNDS) {
+                endGame(-1);
             } else {
                 startNewRound();
             }
@@ -205,21 +240,86 @@ public class GameState {
 
 
     /**
-     * Check if any of the player reach 9 (if it is then adjust the log message
+     * Check if any of the player reach the winning score (if it is then adjust the log message
      */
     private void checkGameOver() {
 
-        if (player1Score >= 9) {
-            gameOver = true;
-            lastLogMessage += "; PLAYER 1 WON!";
-        } else if (player2Score >= 9) {
-            gameOver = true;
-            lastLogMessage += "; PLAYER 2 WON!";
+        if (player1Score >= Constants.WINNING_SCORE) {
+            endGame(0);
+        } else if (player2Score >= Constants.WINNING_SCORE) {
+            endGame(1);
+        }
+    }
+
+    private void endGame(int winner) {
+        gameOver = true;
+        this.winner = winner;
+        lastLogMessage = null;
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onGameOver(winner);
+        }
+    }
+
+    /**
+     * Record that a player left before the game was over. The game stops where it is, without a winner on its frames.
+     */
+    public void forfeit(int playerIndex) {
+        if (gameOver) {
+            return;
+        }
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onForfeit(playerIndex);
+        }
+    }
+
+    /**
+     * Reject a command that could not be understood, which is reported like an invalid move
+     */
+    public void rejectCommand(int playerIndex) {
+        reject(playerIndex, InvalidMoveReason.SYNTAX_ERROR);
+    }
+
+    private void reject(int playerIndex, InvalidMoveReason reason) {
+        lastRejection = reason;
+        setLastAction(ACTION_INVALID);
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onInvalidMove(playerIndex, reason);
+        }
+    }
+
+    private void setLastAction(int action) {
+        lastAction = action;
+        lastLogMessage = null;
+    }
+
+    /**
+     * Build the log line for the last action, as shown at the bottom of a frame
+     */
+    private String formatLogMessage() {
+        switch (lastAction) {
+            case ACTION_NEW_ROUND:
+                return "NEW ROUND";
+            case ACTION_MOVE:
+                String move = lastAttacker + " TAKES " + lastDefender;
+                return gameOver && winner >= 0 ? move + "; PLAYER " + (winner + 1) + " WON!" : move;
+            case ACTION_PASS:
+                return gameOver ? "GAME OVER - DRAW" : "PLAYER PASSED";
+            case ACTION_INVALID:
+                return lastRejection.getLogText();
+            default:
+                return "NEW GAME";
         }
     }
 
-    public void setLastLogMessage(String message){
-        this.lastLogMessage = message;
+    /**
+     * Receive events for everything that happens in this game from now on
+     */
+    public void addListener(GameEventListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(GameEventListener listener) {
+        listeners.remove(listener);
     }
 
 
@@ -231,6 +331,14 @@ public class GameState {
     public int getPlayer2Score() { return player2Score; }
     public int getCurrentPlayer() { return currentPlayer; }
     public int getRoundNumber() { return roundNumber; }
-    public String getLastLogMessage() { return lastLogMessage; }
+    public String getLastLogMessage() {
+        if (lastLogMessage == null) {
+            lastLogMessage = formatLogMessage();
+        }
+        return lastLogMessage;
+    }
+    public int getWinner() { return winner; }
     public boolean isGameOver() { return gameOver; }
+    public boolean hasPlayer1Passed() { return player1Passed; }
+    public boolean hasPlayer2Passed() { return player2Passed; }
 }
\ No newline at end of file
@@ -0,0 +1,158 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connects a player running in the same JVM to a GameSession without sockets.
+ * Commands are played straight into the session on the player's thread and game snapshots
+ * travel back over an SPSC queue, so nothing is encoded, rendered or parsed. The session uses
+ * the PlayerTransport side; the in-process player uses move, pass, takeState and disconnect
+ * from a single thread.
+ */
+public class InMemoryTransport implements PlayerTransport {
+    // Every command answers with a state, so a player keeping up never has more than a few waiting
+    private static final int STATE_CAPACITY = 16;
+
+    private final long id;
+    private final String playerId;
+    private final SpscQueue<GameSnapshot> states = new SpscQueue<>(STATE_CAPACITY);
+    private volatile CommandListener listener; // null until the session starts
+    private volatile boolean disconnected = false;
+    private final AtomicBoolean streamEnded = new AtomicBoolean(); // the session has been told the player left
+    private volatile Runnable whenLeftLobby; // null until the player is queued
+    private final AtomicBoolean leftLobby = new AtomicBoolean(); // the lobby has been told the player left
+
+    public InMemoryTransport(long id) {
+        this(id, null);
+    }
+
+    /**
+     * @param playerId the player's rating id, or null for an anonymous player
+     */
+    public InMemoryTransport(long id, String playerId) {
+        this.id = id;
+        this.playerId = playerId;
+    }
+
+    // Session side
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public String getPlayerId() {
+        return playerId;
+    }
+
+    @Override
+    public void whenLeftLobby(Runnable action) {
+        this.whenLeftLobby = action;
+        if (disconnected) {
+            reportLeftLobby();
+        }
+    }
+
+    @Override
+    public void start(CommandListener listener) {
+        this.listener = listener;
+        if (disconnected && streamEnded.compareAndSet(false, true)) {
+            listener.onCommand(CommandDecoder.END_OF_STREAM);
+        }
+    }
+
+    @Override
+    public void sendState(GameState state, boolean forPlayer1) {
+        if (!states.offer(new GameSnapshot(state, forPlayer1)) && !states.isClosed()) {
+            // Like a TCP client that stopped reading, a player this far behind is dropped
+            EventLog.log(EventLog.SLOW_CONSUMER, id);
+            close();
+            endStream();
+        }
+    }
+
+    /**
+     * In-process players only receive states, so the reason is dropped and the player sees the close
+     */
+    @Override
+    public void reject(String reason) {
+        close();
+        endStream();
+    }
+
+    @Override
+    public void close() {
+        states.close();
+    }
+
+    // Player side
+
+    /**
+     * Attack an opponent card
+     * @return false if the game has not started or the session is gone
+     */
+    public boolean move(int fromColumn, int toColumn) {
+        return play(CommandDecoder.move(fromColumn, toColumn));
+    }
+
+    /**
+     * Pass the turn
+     * @return false if the game has not started or the session is gone
+     */
+    public boolean pass() {
+        return play(CommandDecoder.PASS);
+    }
+
+    private boolean play(int command) {
+        CommandListener current = listener;
+        if (current == null || disconnected) {
+            return false;
+        }
+        current.onCommand(command);
+        return true;
+    }
+
+    /**
+     * Wait for the next game state
+     * @return the state, or null once the session has closed the connection
+     */
+    public GameSnapshot takeState() throws InterruptedException {
+        return states.take();
+    }
+
+    /**
+     * Get the next game state if one is waiting
+     */
+    public GameSnapshot pollState() {
+        return states.poll();
+    }
+
+    /**
+     * Leave the game, which the session sees as a disconnect
+     */
+    public void disconnect() {
+        endStream();
+    }
+
+    /**
+     * Mark the player gone and tell the session once, whichever side ended the stream.
+     * From sendState this runs on the session's worker, which plays it straight away.
+     */
+    private void endStream() {
+        disconnected = true;
+        CommandListener current = listener;
+        if (current == null) {
+            reportLeftLobby();
+        } else if (streamEnded.compareAndSet(false, true)) {
+            current.onCommand(CommandDecoder.END_OF_STREAM);
+        }
+    }
+
+    private void reportLeftLobby() {
+        Runnable action = whenLeftLobby;
+        if (action != null && listener == null && leftLobby.compareAndSet(false, true)) {
+            action.run();
+        }
+    }
+}
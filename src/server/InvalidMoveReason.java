@@ -0,0 +1,23 @@
+package server;
+
+/**
+ * Why a player's move or command was rejected, with the text shown in the frame log
+ */
+public enum InvalidMoveReason {
+    OUT_OF_BOUNDS("INVALID MOVE: OUT OF BOUNDS"),
+    EMPTY_SLOT("INVALID MOVE: EMPTY SLOT"),
+    CANNOT_DEFEAT_TARGET("INVALID MOVE: CANNOT DEFEAT TARGET"),
+    NOT_YOUR_TURN("NOT YOUR TURN"),
+    GAME_OVER("GAME OVER"),
+    SYNTAX_ERROR("SYNTAX ERROR");
+
+    private final String logText;
+
+    InvalidMoveReason(String logText) {
+        this.logText = logText;
+    }
+
+    public String getLogText() {
+        return logText;
+    }
+}
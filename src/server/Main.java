@@ -2,21 +2,191 @@ package server;
 
 import common.Constants;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+
 public class Main {
+    private static final String DEFAULT_LOG_DIR = "logs";
+    private static final long LOG_FILE_BYTES = 10 * 1024 * 1024;
+    private static final int LOG_FILES_KEPT = 5;
+
+    /**
+     * Usage:
+     *   Main [port]                                     standalone server
+     *   Main [port] --join routerHost[:controlPort] [--advertise host]
+     *                                                   cluster node registered with a router
+     *   Main --router [playerPort] [controlPort] [--log-dir directory]
+     *                                                   cluster router
+     *
+     * Server limits: --max-connections n, --max-sessions n, --max-channels perConnection, --max-lobby-wait ms,
+     *   --command-rate perSecond, --command-burst n, --drop-excess-commands, --handshake-timeout ms
+     * Matchmaking: --match-window ratingGap, --match-window-growth ratingGapPerSecond
+     * Event log: --log-dir directory (default "logs")
+     * Player ratings: --ratings file, kept for players who send "HELLO id=<id>"
+     * Gameplay analytics: --analytics-csv file, rewritten every minute (always in the event log)
+     * JIT warm-up: --warmup games, played in-process before the port is opened
+     */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--router")) {
+            // The ports are positional and end at the first option
+            int positional = 1;
+            while (positional < args.length && !args[positional].startsWith("--")) {
+                positional++;
+            }
+            int playerPort = positional > 1 ? parsePort(args, 1, Constants.DEFAULT_PORT) : Constants.DEFAULT_PORT;
+            int controlPort = positional > 2 ? parsePort(args, 2, Constants.DEFAULT_CONTROL_PORT) : Constants.DEFAULT_CONTROL_PORT;
+            startEventLog(args);
+            new ClusterRouter(playerPort, controlPort).start();
+            return;
+        }
+
         int port = Constants.DEFAULT_PORT;
 
         // Allow port override from command line
-        if (args.length > 0) {
+        if (args.length > 0 && !args[0].startsWith("--")) {
+            port = parsePort(args, 0, port);
+        }
+
+        ServerLimits limits = new ServerLimits();
+        try {
+            String value;
+            if ((value = optionValue(args, "--max-connections")) != null) {
+                limits.setMaxConnections(Integer.parseInt(value));
+            }
+            if ((value = optionValue(args, "--max-sessions")) != null) {
+                limits.setMaxSessions(Integer.parseInt(value));
+            }
+            if ((value = optionValue(args, "--max-channels")) != null) {
+                limits.setMaxChannels(Integer.parseInt(value));
+            }
+            if ((value = optionValue(args, "--max-lobby-wait")) != null) {
+                limits.setMaxLobbyWaitMs(Long.parseLong(value));
+            }
+            double rate = limits.getCommandsPerSecond();
+            int burst = limits.getCommandBurst();
+            if ((value = optionValue(args, "--command-rate")) != null) {
+                rate = Double.parseDouble(value);
+            }
+            if ((value = optionValue(args, "--command-burst")) != null) {
+                burst = Integer.parseInt(value);
+            }
+            limits.setCommandRate(rate, burst);
+            double window = limits.getMatchWindow();
+            double growth = limits.getMatchWindowGrowth();
+            if ((value = optionValue(args, "--match-window")) != null) {
+                window = Double.parseDouble(value);
+            }
+            if ((value = optionValue(args, "--match-window-growth")) != null) {
+                growth = Double.parseDouble(value);
+            }
+            limits.setMatchWindow(window, growth);
+            if ((value = optionValue(args, "--handshake-timeout")) != null) {
+                limits.setHandshakeTimeoutMs(Integer.parseInt(value));
+            }
+        } catch (NumberFormatException e) {
+            // Starting with only the options before the bad one would be a configuration nobody asked for
+            System.err.println("Invalid limit: " + e.getMessage());
+            System.exit(1);
+        }
+        for (String arg : args) {
+            if (arg.equals("--drop-excess-commands")) {
+                limits.setDelayExcessCommands(false);
+            }
+        }
+
+        String warmupGames = optionValue(args, "--warmup");
+        if (warmupGames != null) {
             try {
-                port = Integer.parseInt(args[0]);
+                Warmup warmup = new Warmup(Integer.parseInt(warmupGames));
+                warmup.run();
+                System.out.println(warmup.formatReport());
             } catch (NumberFormatException e) {
-                System.err.println("Invalid port number. Using default: " + port);
+                System.err.println("Invalid warm-up game count: " + warmupGames);
+            } catch (IOException | InterruptedException e) {
+                System.err.println("Warm-up failed: " + e.getMessage());
             }
         }
 
+        startEventLog(args);
+
         // Start the server
-        CoExistenceServer server = new CoExistenceServer(port);
+        CoExistenceServer server = new CoExistenceServer(port, limits);
+
+        String ratingsFile = optionValue(args, "--ratings");
+        if (ratingsFile != null) {
+            try {
+                RatingStore ratings = new RatingStore(Paths.get(ratingsFile));
+                server.setRatingStore(ratings);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        ratings.close();
+                    } catch (IOException e) {
+                        System.err.println("Error closing rating store: " + e.getMessage());
+                    }
+                }, "rating-store-shutdown"));
+                System.out.println("Ratings loaded for " + ratings.getPlayerCount() + " players from " + ratingsFile);
+            } catch (IOException e) {
+                System.err.println("Ratings disabled: " + e.getMessage());
+            }
+        }
+
+        String analyticsFile = optionValue(args, "--analytics-csv");
+        if (analyticsFile != null) {
+            server.setAnalyticsExport(Paths.get(analyticsFile));
+        }
+
+        String router = optionValue(args, "--join");
+        if (router != null) {
+            String routerHost = router;
+            int routerPort = Constants.DEFAULT_CONTROL_PORT;
+            int colon = router.lastIndexOf(':');
+            if (colon > 0) {
+                routerHost = router.substring(0, colon);
+                routerPort = parsePort(new String[] {router.substring(colon + 1)}, 0, routerPort);
+            }
+
+            String advertise = optionValue(args, "--advertise");
+            ClusterAgent agent = new ClusterAgent(server, routerHost, routerPort,
+                    advertise != null ? advertise : "localhost", port);
+            Thread agentThread = new Thread(agent, "cluster-agent");
+            agentThread.setDaemon(true);
+            agentThread.start();
+        }
+
         server.start();
     }
-}
\ No newline at end of file
+
+    private static int parsePort(String[] args, int index, int defaultPort) {
+        if (args.length <= index) {
+            return defaultPort;
+        }
+        try {
+            return Integer.parseInt(args[index]);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid port number. Using default: " + defaultPort);
+            return defaultPort;
+        }
+    }
+
+    /**
+     * Start the event log in the --log-dir directory; the server or router runs without it if that fails
+     */
+    private static void startEventLog(String[] args) {
+        String logDir = optionValue(args, "--log-dir");
+        try {
+            EventLog.start(new File(logDir != null ? logDir : DEFAULT_LOG_DIR), LOG_FILE_BYTES, LOG_FILES_KEPT);
+        } catch (IOException e) {
+            System.err.println("Event log disabled: " + e.getMessage());
+        }
+    }
+
+    private static String optionValue(String[] args, String option) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(option)) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,356 @@
+package server;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pairs waiting players of similar rating.
+ * Waiting players are indexed in a skip list ordered by rating bucket and then arrival, so
+ * finding the closest opponent is a few O(log n) lookups however many players wait.
+ * A player accepts opponents within a rating window that widens the longer they wait;
+ * a pair is made when the gap fits in the wider of the two players' windows. Each waiting
+ * player is only tried again when a window will have grown to reach one of its neighbours,
+ * or its wait runs out, so a tick costs nothing for players who cannot match yet.
+ * Players may be added and removed from any thread; run() does all matching on one thread. A caller that
+ * keeps its own clock, such as a Simulation, calls match() instead of run().
+ */
+public class Matchmaker<P> {
+    private static final double BUCKET_WIDTH = 10;
+    private static final long TICK_MS = 250;
+    private static final long REPORT_INTERVAL_MS = 60_000;
+    private static final int SAMPLES = 4096; // recent matches kept for the percentiles
+
+    /**
+     * Receives the matchmaker's decisions, on the matchmaker thread
+     */
+    public interface Listener<P> {
+        void onMatch(P player1, P player2);
+
+        /**
+         * The player waited longer than the lobby wait limit
+         */
+        void onTimeout(P player);
+
+        /**
+         * The player left before an opponent was found
+         */
+        void onLeft(P player);
+    }
+
+    private final double initialWindow;
+    private final double windowGrowthPerSecond;
+    private final long maxWaitMs;
+    private final BlockingQueue<Waiting<P>> arrivals = new LinkedBlockingQueue<>();
+    private final BlockingQueue<P> departures = new LinkedBlockingQueue<>();
+    private final ConcurrentSkipListMap<Long, Waiting<P>> index = new ConcurrentSkipListMap<>();
+    // Only used by the matchmaker thread: the waiting players by when to try them again, and by player
+    private final TreeSet<Waiting<P>> byRecheck = new TreeSet<>((a, b) ->
+            a.recheckAt != b.recheckAt ? Long.compare(a.recheckAt, b.recheckAt) : Long.compare(a.key, b.key));
+    private final Map<P, Waiting<P>> byPlayer = new HashMap<>();
+    private long nextSequence = 0;
+
+    // Recent rating gaps and waits, written by the matchmaker thread
+    private final long[] gaps = new long[SAMPLES];
+    private final long[] waits = new long[SAMPLES * 2];
+    private long matches = 0;
+
+    /**
+     * @param initialWindow largest rating gap a player accepts straight away
+     * @param windowGrowthPerSecond how much the window widens for every second of waiting
+     * @param maxWaitMs how long a player waits before giving up, 0 for no limit
+     */
+    public Matchmaker(double initialWindow, double windowGrowthPerSecond, long maxWaitMs) {
+        this.initialWindow = initialWindow;
+        this.windowGrowthPerSecond = windowGrowthPerSecond;
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    /**
+     * Queue a player for matching, from any thread
+     */
+    public void add(P player, double rating) {
+        add(player, rating, System.currentTimeMillis());
+    }
+
+    /**
+     * Queue a player for matching, with the arrival time from the caller's clock
+     */
+    public void add(P player, double rating, long now) {
+        arrivals.add(new Waiting<>(player, rating, now));
+    }
+
+    /**
+     * Take a player who left out of the queue, from any thread, after the player was added.
+     * A player already matched or timed out is ignored.
+     */
+    public void remove(P player) {
+        departures.add(player);
+    }
+
+    /**
+     * Get the number of players waiting for an opponent
+     */
+    public int getWaitingCount() {
+        return index.size() + arrivals.size();
+    }
+
+    /**
+     * Match players until the thread is interrupted
+     */
+    public void run(Listener<P> listener) throws InterruptedException {
+        long nextTick = System.currentTimeMillis() + TICK_MS;
+        long nextReport = System.currentTimeMillis() + REPORT_INTERVAL_MS;
+
+        while (true) {
+            Waiting<P> arrival = arrivals.poll(Math.max(0, nextTick - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (arrival != null) {
+                arrive(arrival, System.currentTimeMillis(), listener);
+                takeArrivals(System.currentTimeMillis(), listener);
+            }
+            takeDepartures(listener);
+
+            long now = System.currentTimeMillis();
+            if (now < nextTick) {
+                continue;
+            }
+            rematch(now, listener);
+            nextTick = now + TICK_MS;
+
+            if (now >= nextReport) {
+                EventLog.log(EventLog.MATCHMAKING_REPORT, matches, index.size(), formatReport());
+                nextReport = now + REPORT_INTERVAL_MS;
+            }
+        }
+    }
+
+    /**
+     * Match the players that arrived since the last call and retry those still waiting, without
+     * blocking. Used instead of run() by a caller that owns the clock; call it every tick.
+     * @param now the time on the clock the players were added with
+     */
+    public void match(long now, Listener<P> listener) {
+        takeArrivals(now, listener);
+        takeDepartures(listener);
+        rematch(now, listener);
+    }
+
+    /**
+     * Match or queue every player added so far. Done before taking departures, so a player who
+     * left is always found in the queue if it was not matched.
+     */
+    private void takeArrivals(long now, Listener<P> listener) {
+        Waiting<P> arrival;
+        while ((arrival = arrivals.poll()) != null) {
+            arrive(arrival, now, listener);
+        }
+    }
+
+    private void arrive(Waiting<P> arrival, long now, Listener<P> listener) {
+        if (!tryMatch(arrival, now, listener)) {
+            insert(arrival, now);
+        }
+    }
+
+    private void takeDepartures(Listener<P> listener) {
+        P player;
+        while ((player = departures.poll()) != null) {
+            Waiting<P> waiting = byPlayer.get(player);
+            if (waiting != null) {
+                unqueue(waiting);
+                listener.onLeft(player);
+            }
+        }
+    }
+
+    /**
+     * Try the players whose recheck time has come, and time out those who waited too long
+     */
+    private void rematch(long now, Listener<P> listener) {
+        while (!byRecheck.isEmpty() && byRecheck.first().recheckAt <= now) {
+            Waiting<P> player = byRecheck.first();
+            unqueue(player);
+            if (maxWaitMs > 0 && now - player.since >= maxWaitMs) {
+                listener.onTimeout(player.player);
+            } else if (!tryMatch(player, now, listener)) {
+                queue(player, now);
+            }
+        }
+    }
+
+    private void insert(Waiting<P> player, long now) {
+        player.key = bucket(player.rating) << 32 | (nextSequence++ & 0xFFFFFFFFL);
+        queue(player, now);
+    }
+
+    /**
+     * Index a player that could not be matched and schedule its next try
+     */
+    private void queue(Waiting<P> player, long now) {
+        index.put(player.key, player);
+        byPlayer.put(player.player, player);
+        player.recheckAt = nextCheck(player, now);
+        byRecheck.add(player);
+    }
+
+    private void unqueue(Waiting<P> player) {
+        byRecheck.remove(player);
+        byPlayer.remove(player.player);
+        index.remove(player.key);
+    }
+
+    /**
+     * Find when a player could next be matched: when the wider of its window and a neighbour's
+     * reaches the gap between them, or when its wait runs out. A neighbour that arrives later
+     * schedules its own try, which covers the pair, so the time only needs to be found again
+     * after each try.
+     */
+    private long nextCheck(Waiting<P> player, long now) {
+        long next = maxWaitMs > 0 ? player.since + maxWaitMs : Long.MAX_VALUE;
+        for (Waiting<P> opponent : candidates(player)) {
+            if (opponent != null) {
+                double gap = Math.abs(opponent.rating - player.rating);
+                next = Math.min(next, Math.min(reaches(player, gap), reaches(opponent, gap)));
+            }
+        }
+        // Checked at the next tick at the earliest, so a pair the candidates miss cannot spin
+        return Math.max(next, now + 1);
+    }
+
+    /**
+     * Get when a player's window will be at least a rating gap wide
+     */
+    private long reaches(Waiting<P> player, double gap) {
+        if (gap <= initialWindow) {
+            return player.since;
+        }
+        if (windowGrowthPerSecond <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return player.since + (long) Math.ceil((gap - initialWindow) * 1000 / windowGrowthPerSecond);
+    }
+
+    /**
+     * Get the opponents a player is compared with: the oldest player in the same bucket and the
+     * nearest players in the buckets either side. Any of them may be null.
+     */
+    private List<Waiting<P>> candidates(Waiting<P> player) {
+        long bucket = bucket(player.rating);
+        Map.Entry<Long, Waiting<P>> same = index.ceilingEntry(bucket << 32);
+        if (same != null && same.getValue() == player) {
+            same = index.higherEntry(same.getKey());
+        }
+        if (same != null && same.getKey() >= (bucket + 1) << 32) {
+            same = null;
+        }
+        Map.Entry<Long, Waiting<P>> below = index.lowerEntry(bucket << 32);
+        Map.Entry<Long, Waiting<P>> above = index.ceilingEntry((bucket + 1) << 32);
+        return Arrays.asList(value(same, player), value(below, player), value(above, player));
+    }
+
+    private static <P> Waiting<P> value(Map.Entry<Long, Waiting<P>> entry, Waiting<P> player) {
+        return entry == null || entry.getValue() == player ? null : entry.getValue();
+    }
+
+    /**
+     * Pair a player with the closest of its candidates, if one is close enough
+     */
+    private boolean tryMatch(Waiting<P> player, long now, Listener<P> listener) {
+        Waiting<P> best = null;
+        double bestGap = Double.MAX_VALUE;
+
+        for (Waiting<P> opponent : candidates(player)) {
+            if (opponent == null) {
+                continue;
+            }
+            double gap = Math.abs(opponent.rating - player.rating);
+            if (gap < bestGap && gap <= Math.max(window(player, now), window(opponent, now))) {
+                best = opponent;
+                bestGap = gap;
+            }
+        }
+
+        if (best == null) {
+            return false;
+        }
+        unqueue(best);
+        record(bestGap, now - player.since, now - best.since);
+
+        // The player who waited longer plays first
+        if (best.since <= player.since) {
+            listener.onMatch(best.player, player.player);
+        } else {
+            listener.onMatch(player.player, best.player);
+        }
+        return true;
+    }
+
+    private double window(Waiting<P> player, long now) {
+        return initialWindow + windowGrowthPerSecond * (now - player.since) / 1000.0;
+    }
+
+    private static long bucket(double rating) {
+        return (long) Math.max(0, rating / BUCKET_WIDTH);
+    }
+
+    private synchronized void record(double gap, long wait1, long wait2) {
+        int sample = (int) (matches % SAMPLES);
+        gaps[sample] = Math.round(gap);
+        waits[sample * 2] = wait1;
+        waits[sample * 2 + 1] = wait2;
+        matches++;
+    }
+
+    /**
+     * Get the total number of matches made
+     */
+    public synchronized long getMatchCount() {
+        return matches;
+    }
+
+    /**
+     * Describe the rating gaps and wait times of recent matches as percentiles
+     */
+    public synchronized String formatReport() {
+        int count = (int) Math.min(matches, SAMPLES);
+        if (count == 0) {
+            return "no matches yet";
+        }
+        long[] recentGaps = Arrays.copyOf(gaps, count);
+        long[] recentWaits = Arrays.copyOf(waits, count * 2);
+        Arrays.sort(recentGaps);
+        Arrays.sort(recentWaits);
+        return String.format("rating gap p50=%d p90=%d p99=%d max=%d, wait ms p50=%d p90=%d p99=%d max=%d (last %d matches)",
+                percentile(recentGaps, 50), percentile(recentGaps, 90), percentile(recentGaps, 99), recentGaps[count - 1],
+                percentile(recentWaits, 50), percentile(recentWaits, 90), percentile(recentWaits, 99),
+                recentWaits[recentWaits.length - 1], count);
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, rank)];
+    }
+
+    /**
+     * A player waiting for an opponent
+     */
+    private static class Waiting<P> {
+        final P player;
+        final double rating;
+        final long since;
+        long key;
+        long recheckAt; // only changed while out of byRecheck
+
+        Waiting(P player, double rating, long since) {
+            this.player = player;
+            this.rating = rating;
+            this.since = since;
+        }
+    }
+}
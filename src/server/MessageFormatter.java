@@ -1,5 +1,6 @@
 package server;
 
+import common.Card;
 import common.Constants;
 
 public class MessageFormatter {
@@ -0,0 +1,109 @@
+package server;
+
+/**
+ * One game seat on a MultiplexedConnection. Commands are handed to the session on the
+ * connection's reader thread; states are rendered as frames and tagged with the channel number.
+ */
+public class MultiplexedChannel implements PlayerTransport {
+    private final long id;
+    private final String playerId;
+    private final int number;
+    private final MultiplexedConnection connection;
+    private volatile CommandListener listener; // null until the session starts
+    private volatile Runnable whenLeftLobby; // null until the player is queued
+    private volatile boolean ended = false;
+
+    MultiplexedChannel(long id, String playerId, int number, MultiplexedConnection connection) {
+        this.id = id;
+        this.playerId = playerId;
+        this.number = number;
+        this.connection = connection;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public String getPlayerId() {
+        return playerId;
+    }
+
+    /**
+     * Get the channel number the client uses for this game
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    public MultiplexedConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Channels are queued and left on the connection's reader thread, so the two cannot race
+     */
+    @Override
+    public void whenLeftLobby(Runnable action) {
+        this.whenLeftLobby = action;
+        if (ended && listener == null) {
+            action.run();
+        }
+    }
+
+    @Override
+    public void start(CommandListener listener) {
+        this.listener = listener;
+        if (ended) {
+            // The client left while waiting for an opponent
+            listener.onCommand(CommandDecoder.END_OF_STREAM);
+        }
+    }
+
+    @Override
+    public void sendState(GameState state, boolean forPlayer1) {
+        connection.send(number, TurnEvents.renderFrame(state, forPlayer1, id));
+    }
+
+    @Override
+    public void reject(String reason) {
+        connection.send(number, reason);
+        close();
+    }
+
+    /**
+     * Close the channel; its number can then be joined again
+     */
+    @Override
+    public void close() {
+        ended = true;
+        connection.closeChannel(this);
+    }
+
+    /**
+     * Hand a command from the client to the session. Commands sent while waiting for an opponent are dropped.
+     */
+    void deliver(int command) {
+        CommandListener current = listener;
+        if (current != null && !ended) {
+            current.onCommand(command);
+        }
+    }
+
+    /**
+     * The client left or the connection closed; the session sees a disconnect
+     */
+    void endOfStream() {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        CommandListener current = listener;
+        if (current != null) {
+            current.onCommand(CommandDecoder.END_OF_STREAM);
+        } else if (whenLeftLobby != null) {
+            whenLeftLobby.run();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package server;
+
+import common.FrameCompression;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * TCP connection carrying many games at once, for bot hosts that would otherwise open a
+ * connection per seat. Each game is played on a numbered channel.
+ *
+ * Client lines start with a channel number from 0 to the channel limit minus one:
+ * "<channel> JOIN [playerId]" queues the channel for a game, "<channel> <command>" plays
+ * a command, and "<channel> LEAVE" disconnects the channel's player.
+ * Every server message is a header "#<channel> <lineCount>" followed by that many lines,
+ * such as a frame or "NO OPPONENT FOUND"; a line count of 0 means the channel was closed
+ * and its number may be joined again.
+ *
+ * One thread reads the connection and plays commands into the channels' sessions. Messages
+ * from every channel share one outbound queue, and the writer sends whatever has queued
+ * up with a single flush.
+ */
+public class MultiplexedConnection implements Runnable {
+    private static final int MAX_LINE_LENGTH = 64;
+    private static final int READ_BUFFER_SIZE = 4096;
+    // A client this far behind on reading is disconnected with all of its channels
+    private static final long MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+    private static final long MAX_WRITE_STALL_MS = 10000;
+
+    private static final byte[] JOIN = "JOIN".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LEAVE = "LEAVE".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Receives channels opened by the client, on the connection's reader thread
+     */
+    public interface Listener {
+        /**
+         * The client joined a channel; queue it for a game or reject it
+         */
+        void onJoin(MultiplexedChannel channel);
+
+        /**
+         * The connection closed and every open channel has seen the end of its stream
+         */
+        void onClosed(MultiplexedConnection connection);
+    }
+
+    private final long id;
+    private final String name;
+    private final Socket socket;
+    private final InputStream input;
+    private final OutputStream output;
+    private final Executor writerPool;
+    private final Deflater compressor; // null for plain text frames
+    private final AtomicLong channelIds;
+    private final Listener listener;
+    // Opened by the reader thread, removed by whichever thread closes the channel
+    private final AtomicReferenceArray<MultiplexedChannel> channels;
+
+    // All guarded by this
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private long queuedBytes = 0;
+    private boolean writerActive = false;
+    private long writeStartedAt = 0; // 0 while no write is in progress
+    private boolean closed = false;
+
+    private final ArrayDeque<byte[]> writing = new ArrayDeque<>(); // only used by the active writer
+
+    /**
+     * @param id number identifying the connection in the event log
+     * @param compressed true if the client negotiated compressed frames
+     * @param maxChannels number of channels the client may have open
+     * @param channelIds source of event log numbers for the channels
+     */
+    public MultiplexedConnection(long id, String name, Socket socket, Executor writerPool, boolean compressed,
+                                 int maxChannels, AtomicLong channelIds, Listener listener) throws IOException {
+        this.id = id;
+        this.name = name;
+        this.socket = socket;
+        this.input = socket.getInputStream();
+        this.writerPool = writerPool;
+        this.channelIds = channelIds;
+        this.listener = listener;
+        this.channels = new AtomicReferenceArray<>(maxChannels);
+
+        socket.setTcpNoDelay(true);
+        OutputStream socketOutput = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+        if (compressed) {
+            this.compressor = FrameCompression.newCompressor();
+            this.output = new DeflaterOutputStream(socketOutput, compressor, 16 * 1024, true);
+        } else {
+            this.compressor = null;
+            this.output = socketOutput;
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Read and dispatch the client's lines until the connection closes
+     */
+    @Override
+    public void run() {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        byte[] line = new byte[MAX_LINE_LENGTH];
+        int length = 0;
+        boolean overlong = false;
+
+        try {
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                for (int i = 0; i < count; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        if (!overlong) {
+                            lineComplete(line, length);
+                        }
+                        length = 0;
+                        overlong = false;
+                    } else if (b != '\r') {
+                        if (length < MAX_LINE_LENGTH) {
+                            line[length++] = b;
+                        } else {
+                            overlong = true;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Connection lost or aborted
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void lineComplete(byte[] line, int length) {
+        int number = 0;
+        int i = 0;
+        while (i < length && i < 9 && line[i] >= '0' && line[i] <= '9') {
+            number = number * 10 + (line[i] - '0');
+            i++;
+        }
+        if (i == 0 || i >= length || line[i] != ' ') {
+            // Not a channel line
+            return;
+        }
+        if (number >= channels.length()) {
+            send(number, "CHANNEL OUT OF RANGE");
+            return;
+        }
+
+        int start = i + 1;
+        int commandLength = length - start;
+        MultiplexedChannel channel = channels.get(number);
+
+        if (startsWith(line, start, commandLength, JOIN)) {
+            if (channel == null) {
+                String playerId = commandLength > JOIN.length + 1
+                        ? new String(line, start + JOIN.length + 1, commandLength - JOIN.length - 1, StandardCharsets.US_ASCII)
+                        : null;
+                if (!RatingStore.isValidId(playerId)) {
+                    // Like in the handshake, an id that cannot be stored leaves the player unrated
+                    playerId = null;
+                }
+                channel = new MultiplexedChannel(channelIds.incrementAndGet(), playerId, number, this);
+                channels.set(number, channel);
+                listener.onJoin(channel);
+            }
+        } else if (channel == null) {
+            // Commands for a channel that is not open, for example one that just finished, are ignored
+        } else if (startsWith(line, start, commandLength, LEAVE)) {
+            channel.endOfStream();
+        } else {
+            channel.deliver(CommandDecoder.decode(line, start, commandLength));
+        }
+    }
+
+    private static boolean startsWith(byte[] line, int start, int length, byte[] word) {
+        if (length < word.length || (length > word.length && line[start + word.length] != ' ')) {
+            return false;
+        }
+        for (int i = 0; i < word.length; i++) {
+            if (line[start + i] != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queue a message for a channel without blocking
+     * @param message one or more lines, or null to announce the channel closed
+     */
+    void send(int number, String message) {
+        // Frames already end with a line terminator
+        String body = message == null || message.endsWith("\n") ? message : message + "\n";
+        int lines = 0;
+        if (body != null) {
+            for (int i = 0; i < body.length(); i++) {
+                if (body.charAt(i) == '\n') {
+                    lines++;
+                }
+            }
+        }
+        String header = "#" + number + " " + lines + "\n";
+        byte[] bytes = (body != null ? header + body : header).getBytes(StandardCharsets.US_ASCII);
+        boolean startWriter = false;
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            if ((writeStartedAt != 0 && System.currentTimeMillis() - writeStartedAt > MAX_WRITE_STALL_MS)
+                    || queuedBytes + bytes.length > MAX_QUEUED_BYTES) {
+                EventLog.log(EventLog.SLOW_CONSUMER, id);
+                abortLocked();
+                return;
+            }
+
+            queue.add(bytes);
+            queuedBytes += bytes.length;
+            if (!writerActive) {
+                writerActive = true;
+                startWriter = true;
+            }
+        }
+
+        if (startWriter) {
+            writerPool.execute(this::drain);
+        }
+    }
+
+    /**
+     * Close a channel that is still open on this connection and tell the client
+     */
+    void closeChannel(MultiplexedChannel channel) {
+        if (channels.compareAndSet(channel.getNumber(), channel, null)) {
+            send(channel.getNumber(), null);
+        }
+    }
+
+    /**
+     * Write everything queued, as one flush per batch, until the queue is empty
+     */
+    private void drain() {
+        while (true) {
+            synchronized (this) {
+                if (queue.isEmpty() || closed) {
+                    writerActive = false;
+                    releaseCompressor();
+                    return;
+                }
+                writing.addAll(queue);
+                queue.clear();
+                queuedBytes = 0;
+                writeStartedAt = System.currentTimeMillis();
+            }
+
+            try {
+                TurnEvents.FrameWrite trace = TurnEvents.beginFrameWrite(id);
+                byte[] bytes;
+                while ((bytes = writing.poll()) != null) {
+                    output.write(bytes);
+                    TurnEvents.frameWritten(trace, bytes.length);
+                }
+                output.flush();
+                TurnEvents.endFrameWrite(trace);
+            } catch (IOException e) {
+                writing.clear();
+                synchronized (this) {
+                    writerActive = false;
+                    abortLocked();
+                    releaseCompressor();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                writeStartedAt = 0;
+            }
+        }
+    }
+
+    /**
+     * Close the socket, dropping queued messages. The reader then ends every channel.
+     */
+    public synchronized void abort() {
+        abortLocked();
+    }
+
+    private void abortLocked() {
+        queue.clear();
+        queuedBytes = 0;
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            EventLog.log(EventLog.CONNECTION_ERROR, id, 0, e.getMessage());
+        }
+        if (!writerActive) {
+            releaseCompressor();
+        }
+    }
+
+    /**
+     * The reader has stopped: end every open channel's stream so its session finishes
+     */
+    private void shutdown() {
+        abort();
+        for (int number = 0; number < channels.length(); number++) {
+            MultiplexedChannel channel = channels.getAndSet(number, null);
+            if (channel != null) {
+                channel.endOfStream();
+            }
+        }
+        listener.onClosed(this);
+    }
+
+    private void releaseCompressor() {
+        if (closed && compressor != null) {
+            compressor.end();
+        }
+    }
+}
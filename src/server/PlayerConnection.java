@@ -0,0 +1,390 @@
+package server;
+
+import common.FrameCompression;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * TCP transport: a player's non-blocking socket served by a ServerEventLoop.
+ * Commands are decoded on the loop thread out of the loop's shared read buffer. A frame is
+ * written straight away by the thread that sends it; only when the socket cannot take it
+ * all is it queued and finished by the loop, so a client that stops reading only stalls
+ * its own queue. Since every frame is a complete game state, a queue that backs up is
+ * collapsed to the newest frame, and a client whose socket has not accepted a frame for
+ * too long is disconnected. Buffers exist only while a frame is in flight. However the
+ * connection ends, its session hears END_OF_STREAM exactly once, from the loop thread, and a
+ * player who leaves the lobby is reported so it stops waiting for an opponent.
+ * When compression was negotiated, frames go through a DEFLATE context that lives
+ * as long as the connection.
+ */
+public class PlayerConnection implements PlayerTransport, ChannelHandler {
+    // Commands read in the lobby are kept for the session up to this many, like its own pending commands
+    private static final int MAX_LOBBY_COMMANDS = 16;
+    // Queued frames beyond this are collapsed to the newest one
+    private static final int MAX_QUEUED_FRAMES = 4;
+    // A write blocked for longer than this marks the client as a slow consumer
+    private static final long MAX_WRITE_STALL_MS = 10000;
+
+    private final long id;
+    private final String playerId; // null for an anonymous player
+    private final String name;
+    private final SocketChannel channel;
+    private final ServerEventLoop eventLoop;
+    private final CommandDecoder decoder = new CommandDecoder(); // only used by the loop thread
+    private final Deflater compressor; // null for plain text frames
+    private final long connectedAt;
+    private SelectionKey key; // only used by the loop thread, set once registered
+    private volatile CommandListener listener; // null until the session starts
+    private volatile Runnable whenLeftLobby; // null until the player is queued
+    // Only used by the loop thread
+    private boolean started = false; // commands now go to the listener
+    private ArrayDeque<Integer> lobbyCommands; // read before the session started, null when there are none
+    private boolean endOfStream = false;
+
+    // All guarded by this
+    private ByteBuffer writing; // the frame being written, null when the socket is idle
+    private ArrayDeque<byte[]> queue; // frames waiting behind it, null when there are none
+    private long stalledSince = 0; // when the socket stopped taking the current frame, 0 if it has not
+    private boolean closing = false;
+    private boolean closed = false;
+    private long collapsedFrames = 0;
+    private TurnEvents.FrameWrite writeTrace; // times the socket from busy to idle, null unless recording
+
+    /**
+     * @param id number identifying the connection in the event log
+     * @param playerId the id from the player's handshake, or null for an anonymous player
+     * @param compressed true if the player negotiated compressed frames
+     */
+    public PlayerConnection(long id, String playerId, String name, SocketChannel channel, ServerEventLoop eventLoop,
+                            boolean compressed) throws IOException {
+        this.id = id;
+        this.playerId = playerId;
+        this.name = name;
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.compressor = compressed ? FrameCompression.newCompressor() : null;
+        this.connectedAt = System.currentTimeMillis();
+
+        // Every write is a whole frame; Nagle's algorithm would only hold it back waiting for a delayed ACK
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.configureBlocking(false);
+        eventLoop.register(channel, this);
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public String getPlayerId() {
+        return playerId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get when the player connected, in milliseconds since the epoch
+     */
+    public long getConnectedAt() {
+        return connectedAt;
+    }
+
+    /**
+     * Read the socket while the player waits for an opponent, so a player who leaves is noticed
+     */
+    @Override
+    public void whenLeftLobby(Runnable action) {
+        this.whenLeftLobby = action;
+        eventLoop.execute(() -> {
+            if (endOfStream && !started) {
+                // Already gone
+                action.run();
+            } else {
+                updateInterest();
+            }
+        });
+    }
+
+    /**
+     * Hand the session the commands read so far and every later one, on the loop thread
+     */
+    @Override
+    public void start(CommandListener listener) {
+        this.listener = listener;
+        eventLoop.execute(() -> {
+            started = true;
+            if (lobbyCommands != null) {
+                for (int command : lobbyCommands) {
+                    listener.onCommand(command);
+                }
+                lobbyCommands = null;
+            }
+            if (endOfStream) {
+                // Left while waiting for an opponent
+                listener.onCommand(CommandDecoder.END_OF_STREAM);
+            }
+            updateInterest();
+        });
+    }
+
+    /**
+     * Called by the event loop once the channel is registered
+     */
+    @Override
+    public void registered(SelectionKey key) {
+        this.key = key;
+        updateInterest();
+    }
+
+    /**
+     * Called by the event loop when the channel is ready
+     */
+    @Override
+    public void handleReady(SelectionKey key, ByteBuffer readBuffer) {
+        if (key.isValid() && key.isWritable()) {
+            synchronized (this) {
+                flushLocked();
+            }
+        }
+        if (key.isValid() && key.isReadable()) {
+            read(readBuffer);
+        }
+    }
+
+    private void read(ByteBuffer readBuffer) {
+        readBuffer.clear();
+        int count;
+        try {
+            count = channel.read(readBuffer);
+        } catch (IOException e) {
+            count = -1;
+        }
+
+        if (count < 0) {
+            streamEnded();
+            return;
+        }
+
+        readBuffer.flip();
+        int command;
+        while ((command = decoder.next(readBuffer)) != CommandDecoder.NEED_INPUT) {
+            if (started) {
+                listener.onCommand(command);
+            } else {
+                if (lobbyCommands == null) {
+                    lobbyCommands = new ArrayDeque<>();
+                }
+                if (lobbyCommands.size() < MAX_LOBBY_COMMANDS) {
+                    lobbyCommands.add(command);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tell the session the player is gone, or the lobby if there is no session yet, once, on the loop thread
+     */
+    private void streamEnded() {
+        if (endOfStream) {
+            return;
+        }
+        endOfStream = true;
+        updateInterest();
+        if (started) {
+            listener.onCommand(CommandDecoder.END_OF_STREAM);
+        } else if (whenLeftLobby != null) {
+            whenLeftLobby.run();
+        }
+    }
+
+    /**
+     * Apply the current read and write interest to the key, on the loop thread
+     */
+    private void updateInterest() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int ops = (started || whenLeftLobby != null) && !endOfStream ? SelectionKey.OP_READ : 0;
+        synchronized (this) {
+            if (stalledSince != 0) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * Render the state as a text frame and send it
+     */
+    @Override
+    public void sendState(GameState state, boolean forPlayer1) {
+        send(TurnEvents.renderFrame(state, forPlayer1, id));
+    }
+
+    /**
+     * Send a frame without blocking, queuing it if the socket is still busy with an earlier one
+     */
+    public void send(String frame) {
+        byte[] bytes = (frame + "\n").getBytes(StandardCharsets.US_ASCII);
+
+        synchronized (this) {
+            if (closing || closed) {
+                return;
+            }
+
+            if (writing == null) {
+                writing = encode(bytes);
+                writeTrace = TurnEvents.beginFrameWrite(id);
+                flushLocked();
+                return;
+            }
+
+            if (stalledSince != 0 && System.currentTimeMillis() - stalledSince > MAX_WRITE_STALL_MS) {
+                EventLog.log(EventLog.SLOW_CONSUMER, id);
+                abortLocked();
+                return;
+            }
+
+            if (queue == null) {
+                queue = new ArrayDeque<>(MAX_QUEUED_FRAMES);
+            }
+            if (queue.size() >= MAX_QUEUED_FRAMES) {
+                // Older frames are superseded by this one
+                collapsedFrames += queue.size();
+                queue.clear();
+            }
+            queue.add(bytes);
+        }
+    }
+
+    /**
+     * Write until everything is sent or the socket is full, in which case the loop finishes once it is writable
+     */
+    private void flushLocked() {
+        try {
+            while (writing != null) {
+                channel.write(writing);
+                if (writing.hasRemaining()) {
+                    if (stalledSince == 0) {
+                        stalledSince = System.currentTimeMillis();
+                        eventLoop.execute(this::updateInterest);
+                    }
+                    return;
+                }
+
+                TurnEvents.frameWritten(writeTrace, writing.limit());
+                byte[] next = queue != null ? queue.poll() : null;
+                if (next == null) {
+                    queue = null;
+                }
+                // Queued frames are compressed only now, so collapsed ones never touch the DEFLATE context
+                writing = next != null ? encode(next) : null;
+            }
+        } catch (IOException e) {
+            writeTrace = null;
+            abortLocked();
+            return;
+        }
+
+        TurnEvents.endFrameWrite(writeTrace);
+        writeTrace = null;
+        if (stalledSince != 0) {
+            stalledSince = 0;
+            eventLoop.execute(this::updateInterest);
+        }
+        if (closing) {
+            closeLocked();
+        }
+    }
+
+    private ByteBuffer encode(byte[] frame) {
+        if (compressor == null) {
+            return ByteBuffer.wrap(frame);
+        }
+
+        // Sync flush ends every frame on a byte boundary the client can decode straight away
+        compressor.setInput(frame);
+        byte[] output = new byte[frame.length / 4 + 64];
+        int length = 0;
+        while (true) {
+            length += compressor.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+            if (length < output.length) {
+                return ByteBuffer.wrap(output, 0, length);
+            }
+            output = Arrays.copyOf(output, output.length * 2);
+        }
+    }
+
+    @Override
+    public void reject(String reason) {
+        send(reason);
+        close();
+    }
+
+    /**
+     * Close once every queued frame has been written
+     */
+    @Override
+    public synchronized void close() {
+        closing = true;
+        if (writing == null) {
+            closeLocked();
+        }
+    }
+
+    /**
+     * Close immediately, dropping queued frames
+     */
+    @Override
+    public synchronized void abort() {
+        abortLocked();
+    }
+
+    /**
+     * Get how many frames were dropped because a newer frame replaced them
+     */
+    public synchronized long getCollapsedFrames() {
+        return collapsedFrames;
+    }
+
+    /**
+     * Close at once; the socket will never report the end of its stream, so the session is told here
+     */
+    private void abortLocked() {
+        writing = null;
+        queue = null;
+        if (closed) {
+            return;
+        }
+        closeLocked();
+        eventLoop.execute(this::streamEnded);
+    }
+
+    private void closeLocked() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            // Closing the channel also cancels its key on the loop
+            channel.close();
+        } catch (IOException e) {
+            EventLog.log(EventLog.CONNECTION_ERROR, id, 0, e.getMessage());
+        }
+        if (compressor != null) {
+            compressor.end();
+        }
+    }
+}
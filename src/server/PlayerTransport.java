@@ -0,0 +1,49 @@
+package server;
+
+/**
+ * The connection between a GameSession and one of its players.
+ * Sessions only see decoded commands and game states, so remote players over TCP
+ * and players running in the same JVM go through exactly the same session logic.
+ */
+public interface PlayerTransport {
+    /**
+     * Get the number identifying the player in the event log
+     */
+    long getId();
+
+    /**
+     * Get the id the player identified itself with in the handshake
+     * @return the id, or null for an anonymous player
+     */
+    String getPlayerId();
+
+    /**
+     * Run an action once if the player leaves while waiting for an opponent, on whichever thread
+     * notices. Called when the player is queued; runs the action straight away if the player has
+     * already left. Commands sent while waiting may be dropped, but the end of the stream is still
+     * delivered if the session starts anyway.
+     */
+    void whenLeftLobby(Runnable action);
+
+    /**
+     * Start delivering the player's commands, on whichever thread receives them.
+     * Nothing waits for a command, so an idle player holds no thread.
+     */
+    void start(CommandListener listener);
+
+    /**
+     * Send the current game state as seen by this player, without blocking
+     * @param forPlayer1 true if this player is player 1
+     */
+    void sendState(GameState state, boolean forPlayer1);
+
+    /**
+     * Tell the player why they are being dropped, such as "NO OPPONENT FOUND", and close
+     */
+    void reject(String reason);
+
+    /**
+     * Close once every queued state has been delivered
+     */
+    void close();
+}
@@ -0,0 +1,457 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Embedded, file-backed Elo ratings keyed by player id.
+ * The file is a memory-mapped open-addressing hash table of fixed-size records, so the
+ * ratings live off-heap and lookups need no index in memory. Sessions hand in results
+ * without blocking; a single writer thread applies them in batches and is the only thread
+ * that changes the file. Reads from other threads may be up to a batch behind.
+ */
+public class RatingStore implements Closeable {
+    public static final double INITIAL_RATING = 1500;
+    public static final int MAX_ID_LENGTH = 32;
+
+    // Players with fewer games than this move faster towards their real rating
+    private static final int PROVISIONAL_GAMES = 30;
+    private static final double PROVISIONAL_K = 40;
+    private static final double K = 20;
+
+    private static final int MAGIC = 0x43585254; // "CXRT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 64;
+    // Record layout: id (zero-padded ASCII, empty slot if the first byte is 0), then these fields
+    private static final int RATING_OFFSET = 32;
+    private static final int WINS_OFFSET = 40;
+    private static final int LOSSES_OFFSET = 44;
+    private static final int DRAWS_OFFSET = 48;
+    // Losses by leaving a game early, also counted in the losses; always zero in files written before it was kept
+    private static final int FORFEITS_OFFSET = 52;
+    private static final int LAST_PLAYED_OFFSET = 56;
+
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final double MAX_LOAD = 0.7;
+    private static final int BATCH_SIZE = 1024;
+    private static final int MAX_QUEUED_RESULTS = 1 << 16;
+    private static final long IDLE_PARK_NANOS = 10_000_000;
+    private static final long FORCE_INTERVAL_MS = 1000;
+
+    private final Path file;
+    private volatile Table table;
+    private final Queue<Result> results = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedResults = new AtomicInteger();
+    private final AtomicLong droppedResults = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    public RatingStore(Path file) throws IOException {
+        this.file = file;
+        this.table = Files.exists(file) ? Table.open(file) : Table.create(file, INITIAL_CAPACITY);
+        this.writerThread = new Thread(this::writeResults, "rating-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Check that a player id can be stored: 1 to 32 letters, digits, '.', '_' or '-'
+     */
+    public static boolean isValidId(String playerId) {
+        if (playerId == null || playerId.isEmpty() || playerId.length() > MAX_ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < playerId.length(); i++) {
+            char c = playerId.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9')
+                    && c != '.' && c != '_' && c != '-') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queue a game result without blocking. Results are dropped and counted if the writer falls far behind.
+     * @param winner 0 for player1, 1 for player2, or -1 for a draw
+     */
+    public void recordResult(String player1Id, String player2Id, int winner) {
+        if (queuedResults.incrementAndGet() > MAX_QUEUED_RESULTS) {
+            queuedResults.decrementAndGet();
+            droppedResults.incrementAndGet();
+            return;
+        }
+        results.add(new Result(player1Id, player2Id, winner, false));
+    }
+
+    /**
+     * Queue the result of a game a player left before it was over, which that player loses
+     * and which is also counted as a forfeit. Never blocks, like recordResult.
+     * @param leaver 0 for player1, 1 for player2
+     */
+    public void recordForfeit(String player1Id, String player2Id, int leaver) {
+        if (queuedResults.incrementAndGet() > MAX_QUEUED_RESULTS) {
+            queuedResults.decrementAndGet();
+            droppedResults.incrementAndGet();
+            return;
+        }
+        results.add(new Result(player1Id, player2Id, 1 - leaver, true));
+    }
+
+    /**
+     * Get a player's rating
+     * @return the rating, or INITIAL_RATING for a player without rated games
+     */
+    public double getRating(String playerId) {
+        Table current = table;
+        int slot = current.find(encode(playerId));
+        return slot >= 0 && current.isOccupied(slot) ? current.buffer.getDouble(current.offset(slot) + RATING_OFFSET) : INITIAL_RATING;
+    }
+
+    /**
+     * Get a player's rating and results
+     * @return the record, or null for a player without rated games
+     */
+    public PlayerRating getPlayer(String playerId) {
+        Table current = table;
+        int slot = current.find(encode(playerId));
+        if (slot < 0 || !current.isOccupied(slot)) {
+            return null;
+        }
+        int offset = current.offset(slot);
+        ByteBuffer buffer = current.buffer;
+        return new PlayerRating(playerId, buffer.getDouble(offset + RATING_OFFSET), buffer.getInt(offset + WINS_OFFSET),
+                buffer.getInt(offset + LOSSES_OFFSET), buffer.getInt(offset + DRAWS_OFFSET),
+                buffer.getInt(offset + FORFEITS_OFFSET));
+    }
+
+    /**
+     * Get the number of players with a record
+     */
+    public int getPlayerCount() {
+        return table.count;
+    }
+
+    /**
+     * Get how many results were dropped because the writer fell behind
+     */
+    public long getDroppedResults() {
+        return droppedResults.get();
+    }
+
+    /**
+     * Apply the remaining results, write the file out and stop the writer
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        table.close();
+    }
+
+    private void writeResults() {
+        long lastForce = System.currentTimeMillis();
+        boolean dirty = false;
+
+        try {
+            while (true) {
+                boolean stopping = !running;
+                int applied = 0;
+                Result result;
+                while (applied < BATCH_SIZE && (result = results.poll()) != null) {
+                    apply(result);
+                    applied++;
+                }
+                queuedResults.addAndGet(-applied);
+                dirty |= applied > 0;
+
+                long now = System.currentTimeMillis();
+                if (dirty && (stopping || now - lastForce >= FORCE_INTERVAL_MS)) {
+                    table.buffer.force();
+                    table.writeCount();
+                    lastForce = now;
+                    dirty = false;
+                }
+
+                if (applied == 0) {
+                    if (stopping) {
+                        break;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Rating store failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Apply one result with the Elo formula
+     */
+    private void apply(Result result) throws IOException {
+        if (result.player1Id.equals(result.player2Id)) {
+            return;
+        }
+        // Grow before looking up either player, so both slots are in the table they are written to
+        if (table.count + 2 > table.capacity * MAX_LOAD) {
+            table = table.grow(file);
+        }
+        int slot1 = slotFor(result.player1Id);
+        int slot2 = slotFor(result.player2Id);
+        Table current = table;
+        ByteBuffer buffer = current.buffer;
+        int offset1 = current.offset(slot1);
+        int offset2 = current.offset(slot2);
+
+        double rating1 = buffer.getDouble(offset1 + RATING_OFFSET);
+        double rating2 = buffer.getDouble(offset2 + RATING_OFFSET);
+        double expected1 = 1.0 / (1.0 + Math.pow(10, (rating2 - rating1) / 400.0));
+        double score1 = result.winner == 0 ? 1.0 : result.winner == 1 ? 0.0 : 0.5;
+
+        buffer.putDouble(offset1 + RATING_OFFSET, rating1 + kFactor(buffer, offset1) * (score1 - expected1));
+        buffer.putDouble(offset2 + RATING_OFFSET, rating2 + kFactor(buffer, offset2) * (expected1 - score1));
+
+        int outcome1 = result.winner == 0 ? WINS_OFFSET : result.winner == 1 ? LOSSES_OFFSET : DRAWS_OFFSET;
+        int outcome2 = result.winner == 0 ? LOSSES_OFFSET : result.winner == 1 ? WINS_OFFSET : DRAWS_OFFSET;
+        buffer.putInt(offset1 + outcome1, buffer.getInt(offset1 + outcome1) + 1);
+        buffer.putInt(offset2 + outcome2, buffer.getInt(offset2 + outcome2) + 1);
+        if (result.forfeit) {
+            int loser = result.winner == 0 ? offset2 : offset1;
+            buffer.putInt(loser + FORFEITS_OFFSET, buffer.getInt(loser + FORFEITS_OFFSET) + 1);
+        }
+
+        long now = System.currentTimeMillis();
+        buffer.putLong(offset1 + LAST_PLAYED_OFFSET, now);
+        buffer.putLong(offset2 + LAST_PLAYED_OFFSET, now);
+    }
+
+    private static double kFactor(ByteBuffer buffer, int offset) {
+        int games = buffer.getInt(offset + WINS_OFFSET) + buffer.getInt(offset + LOSSES_OFFSET) + buffer.getInt(offset + DRAWS_OFFSET);
+        return games < PROVISIONAL_GAMES ? PROVISIONAL_K : K;
+    }
+
+    /**
+     * Find a player's record, creating it with the initial rating if needed. Writer thread only;
+     * the caller makes room first, since growing here would move slots it already holds.
+     */
+    private int slotFor(String playerId) {
+        byte[] id = encode(playerId);
+        int slot = table.find(id);
+        if (slot >= 0 && table.isOccupied(slot)) {
+            return slot;
+        }
+        table.insert(slot, id);
+        return slot;
+    }
+
+    private static byte[] encode(String playerId) {
+        return playerId.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A game result waiting to be applied
+     */
+    private static class Result {
+        final String player1Id;
+        final String player2Id;
+        final int winner;
+        final boolean forfeit; // the loser left the game
+
+        Result(String player1Id, String player2Id, int winner, boolean forfeit) {
+            this.player1Id = player1Id;
+            this.player2Id = player2Id;
+            this.winner = winner;
+            this.forfeit = forfeit;
+        }
+    }
+
+    /**
+     * A player's rating and results at the time it was read
+     */
+    public static class PlayerRating {
+        private final String playerId;
+        private final double rating;
+        private final int wins;
+        private final int losses;
+        private final int draws;
+        private final int forfeits;
+
+        PlayerRating(String playerId, double rating, int wins, int losses, int draws, int forfeits) {
+            this.playerId = playerId;
+            this.rating = rating;
+            this.wins = wins;
+            this.losses = losses;
+            this.draws = draws;
+            this.forfeits = forfeits;
+        }
+
+        public String getPlayerId() { return playerId; }
+        public double getRating() { return rating; }
+        public int getWins() { return wins; }
+        public int getLosses() { return losses; }
+        public int getDraws() { return draws; }
+
+        /**
+         * @return the losses that came from leaving a game before it was over
+         */
+        public int getForfeits() { return forfeits; }
+    }
+
+    /**
+     * The mapped hash table. Only the writer thread changes it; a grown table replaces it whole.
+     */
+    private static class Table {
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final int capacity; // a power of two
+        int count;
+
+        private Table(FileChannel channel, int capacity) throws IOException {
+            this.channel = channel;
+            this.capacity = capacity;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        }
+
+        static Table create(Path file, int capacity) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            Table table = new Table(channel, capacity);
+            table.buffer.putInt(0, MAGIC);
+            table.buffer.putInt(4, VERSION);
+            table.buffer.putInt(8, capacity);
+            table.writeCount();
+            return table;
+        }
+
+        static Table open(Path file) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                channel.close();
+                throw new IOException(file + " is not a rating store");
+            }
+
+            Table table = new Table(channel, header.getInt(8));
+            // The count is only written out periodically, so recount after a crash
+            for (int slot = 0; slot < table.capacity; slot++) {
+                if (table.isOccupied(slot)) {
+                    table.count++;
+                }
+            }
+            return table;
+        }
+
+        int offset(int slot) {
+            return HEADER_SIZE + slot * RECORD_SIZE;
+        }
+
+        boolean isOccupied(int slot) {
+            return buffer.get(offset(slot)) != 0;
+        }
+
+        /**
+         * Probe for an id
+         * @return the id's slot, or the empty slot where it would go
+         */
+        int find(byte[] id) {
+            int slot = hash(id) & (capacity - 1);
+            while (isOccupied(slot) && !matches(slot, id)) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            return slot;
+        }
+
+        private boolean matches(int slot, byte[] id) {
+            int offset = offset(slot);
+            for (int i = 0; i < MAX_ID_LENGTH; i++) {
+                byte expected = i < id.length ? id[i] : 0;
+                if (buffer.get(offset + i) != expected) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void insert(int slot, byte[] id) {
+            int offset = offset(slot);
+            buffer.putDouble(offset + RATING_OFFSET, INITIAL_RATING);
+            // The first id byte marks the slot as used, so it is written last
+            for (int i = id.length - 1; i >= 0; i--) {
+                buffer.put(offset + i, id[i]);
+            }
+            count++;
+        }
+
+        void writeCount() {
+            buffer.putInt(12, count);
+        }
+
+        /**
+         * Copy every record into a table twice the size and replace the file with it
+         */
+        Table grow(Path file) throws IOException {
+            Path resized = file.resolveSibling(file.getFileName() + ".resize");
+            Table bigger = create(resized, capacity * 2);
+            byte[] record = new byte[RECORD_SIZE];
+
+            for (int slot = 0; slot < capacity; slot++) {
+                if (!isOccupied(slot)) {
+                    continue;
+                }
+                ByteBuffer source = buffer.duplicate();
+                source.position(offset(slot));
+                source.get(record);
+                int length = 0;
+                while (length < MAX_ID_LENGTH && record[length] != 0) {
+                    length++;
+                }
+                byte[] id = new byte[length];
+                System.arraycopy(record, 0, id, 0, length);
+                ByteBuffer target = bigger.buffer.duplicate();
+                target.position(bigger.offset(bigger.find(id)));
+                target.put(record);
+                bigger.count++;
+            }
+
+            bigger.writeCount();
+            bigger.buffer.force();
+            Files.move(resized, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            close();
+            return bigger;
+        }
+
+        void close() throws IOException {
+            writeCount();
+            buffer.force();
+            channel.close();
+        }
+
+        private static int hash(byte[] id) {
+            int hash = 0x811C9DC5;
+            for (byte b : id) {
+                hash = (hash ^ b) * 0x01000193;
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
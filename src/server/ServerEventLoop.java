@@ -0,0 +1,138 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector thread that performs the network I/O for any number of player connections.
+ * An idle connection costs no thread and no buffer: every connection on a loop reads into
+ * the loop's one buffer, and commands are decoded straight out of it.
+ */
+public class ServerEventLoop implements Closeable {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final List<Runnable> deregistered = new ArrayList<>(); // only used by the loop thread
+    private volatile boolean running = true;
+
+    public ServerEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Run a task on the loop thread
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Register a non-blocking channel with no interest yet. A channel already on this loop is
+     * handed to the new handler, keeping its key.
+     */
+    void register(SocketChannel channel, ChannelHandler handler) {
+        execute(() -> {
+            try {
+                handler.registered(channel.register(selector, 0, handler));
+            } catch (ClosedChannelException e) {
+                // Closed before it was registered
+            }
+        });
+    }
+
+    /**
+     * Take a channel off the loop, on the loop thread. The selector only lets go of it at its
+     * next select, after which the channel may be made blocking; then runs on the loop thread.
+     */
+    void deregister(SelectionKey key, Runnable then) {
+        key.cancel();
+        deregistered.add(then);
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                runTasks();
+                // Tasks queued by the loop thread itself must not wait for the next I/O event
+                if (tasks.isEmpty() && deregistered.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                // Every key cancelled before that select is gone from the selector now
+                runDeregistered();
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    ChannelHandler handler = (ChannelHandler) key.attachment();
+                    try {
+                        handler.handleReady(key, readBuffer);
+                    } catch (RuntimeException e) {
+                        EventLog.log(EventLog.CONNECTION_ERROR, handler.getId(), 0, String.valueOf(e));
+                        handler.abort();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            EventLog.log(EventLog.SERVER_ERROR, 0, 0, "event loop failed: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((ChannelHandler) key.attachment()).abort();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error closing selector: " + e.getMessage());
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                EventLog.log(EventLog.SERVER_ERROR, 0, 0, "event loop task failed: " + e);
+            }
+        }
+    }
+
+    private void runDeregistered() {
+        for (int i = 0; i < deregistered.size(); i++) {
+            try {
+                deregistered.get(i).run();
+            } catch (RuntimeException e) {
+                EventLog.log(EventLog.SERVER_ERROR, 0, 0, "event loop task failed: " + e);
+            }
+        }
+        deregistered.clear();
+    }
+
+    /**
+     * Stop the loop and close all of its connections
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+}
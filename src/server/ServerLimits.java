@@ -0,0 +1,105 @@
+package server;
+
+/**
+ * Admission and rate limits for a server. Connections over a limit are rejected
+ * straight away instead of queuing up work the server cannot keep up with.
+ */
+public class ServerLimits {
+    private int maxConnections = 10000;
+    private int maxSessions = 5000;
+    private long maxLobbyWaitMs = 0; // 0 waits for an opponent forever
+    private double commandsPerSecond = 10;
+    private int commandBurst = 20;
+    private boolean delayExcessCommands = true;
+    private int handshakeTimeoutMs = 200;
+    private long gameOverLingerMs = 5000;
+    private int maxChannels = 4096;
+    private double matchWindow = 100;
+    private double matchWindowGrowth = 50;
+
+    /**
+     * Maximum number of open player connections, waiting or playing
+     */
+    public ServerLimits setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * Maximum number of game sessions played at the same time
+     */
+    public ServerLimits setMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+        return this;
+    }
+
+    /**
+     * How long a player waits for an opponent before being disconnected, 0 for no limit
+     */
+    public ServerLimits setMaxLobbyWaitMs(long maxLobbyWaitMs) {
+        this.maxLobbyWaitMs = maxLobbyWaitMs;
+        return this;
+    }
+
+    /**
+     * Sustained command rate allowed per connection, with bursts of up to commandBurst commands
+     */
+    public ServerLimits setCommandRate(double commandsPerSecond, int commandBurst) {
+        this.commandsPerSecond = commandsPerSecond;
+        this.commandBurst = commandBurst;
+        return this;
+    }
+
+    /**
+     * Whether commands over the rate are delayed until allowed (true) or dropped (false)
+     */
+    public ServerLimits setDelayExcessCommands(boolean delayExcessCommands) {
+        this.delayExcessCommands = delayExcessCommands;
+        return this;
+    }
+
+    /**
+     * How long to wait for a client's optional HELLO line before treating it as a legacy client
+     */
+    public ServerLimits setHandshakeTimeoutMs(int handshakeTimeoutMs) {
+        this.handshakeTimeoutMs = handshakeTimeoutMs;
+        return this;
+    }
+
+    /**
+     * How long a finished game stays connected so both players see the final frame
+     */
+    public ServerLimits setGameOverLingerMs(long gameOverLingerMs) {
+        this.gameOverLingerMs = gameOverLingerMs;
+        return this;
+    }
+
+    /**
+     * Maximum number of games a multiplexed connection can have open at once
+     */
+    public ServerLimits setMaxChannels(int maxChannels) {
+        this.maxChannels = maxChannels;
+        return this;
+    }
+
+    /**
+     * Largest rating gap accepted straight away, and how much it widens per second of waiting
+     */
+    public ServerLimits setMatchWindow(double matchWindow, double matchWindowGrowth) {
+        this.matchWindow = matchWindow;
+        this.matchWindowGrowth = matchWindowGrowth;
+        return this;
+    }
+
+    public int getMaxConnections() { return maxConnections; }
+    public int getMaxSessions() { return maxSessions; }
+    public long getMaxLobbyWaitMs() { return maxLobbyWaitMs; }
+    public double getCommandsPerSecond() { return commandsPerSecond; }
+    public int getCommandBurst() { return commandBurst; }
+    public boolean isDelayExcessCommands() { return delayExcessCommands; }
+    public int getHandshakeTimeoutMs() { return handshakeTimeoutMs; }
+    public long getGameOverLingerMs() { return gameOverLingerMs; }
+    public int getMaxChannels() { return maxChannels; }
+    public double getMatchWindow() { return matchWindow; }
+    public double getMatchWindowGrowth() { return matchWindowGrowth; }
+}
@@ -0,0 +1,183 @@
+package server;
+
+import common.Constants;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures how much heap an open but idle game costs, by starting many games whose players
+ * never send a command and comparing the live heap before and after. In-memory games show
+ * the cost of a session and its game state; loopback TCP games add the connections.
+ * Prints bytes per game and the number of threads, which stays flat however many games are open.
+ *
+ * Usage: SessionFootprint [--games n] [--tcp-games n]
+ * Run with a heap large enough for the in-memory games, for example -Xmx256m for 100000.
+ */
+public class SessionFootprint {
+    private final ServerLimits limits = new ServerLimits();
+
+    /**
+     * Play one game to its end first, so one-off allocations such as the event log's ring
+     * and the game-logic workers are not counted against the measured games
+     */
+    public void prime() throws InterruptedException {
+        CountDownLatch ended = new CountDownLatch(1);
+        InMemoryTransport player1 = new InMemoryTransport(0);
+        InMemoryTransport player2 = new InMemoryTransport(1);
+        new GameSession(0, player1, player2, new ServerLimits().setGameOverLingerMs(0)).start(ended::countDown);
+        player1.disconnect();
+        ended.await();
+    }
+
+    /**
+     * Start in-memory games and leave them idle
+     * @return live heap bytes per game
+     */
+    public long measureInMemory(int games) throws InterruptedException {
+        long before = liveHeapBytes();
+        GameSession[] sessions = new GameSession[games];
+        InMemoryTransport[] players = new InMemoryTransport[games * 2];
+
+        for (int game = 0; game < games; game++) {
+            InMemoryTransport player1 = new InMemoryTransport(game * 2L);
+            InMemoryTransport player2 = new InMemoryTransport(game * 2L + 1);
+            sessions[game] = new GameSession(game, player1, player2, limits);
+            sessions[game].start(() -> { });
+            // Take the opening states the way a connected player would
+            player1.takeState();
+            player2.takeState();
+            players[game * 2] = player1;
+            players[game * 2 + 1] = player2;
+        }
+
+        long bytesPerGame = (liveHeapBytes() - before) / games;
+        System.out.println(String.format("%-28s %8d games %10d bytes/game %6d threads",
+                "in-memory", games, bytesPerGame, threadCount()));
+        for (InMemoryTransport player : players) {
+            player.disconnect();
+        }
+        return bytesPerGame;
+    }
+
+    /**
+     * Start games over loopback connections and leave them idle
+     * @return live heap bytes per game on top of its four socket channels
+     */
+    public long measureTcp(int games) throws IOException {
+        ServerEventLoop[] eventLoops = new ServerEventLoop[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new ServerEventLoop("footprint-io-" + i);
+        }
+        SocketChannel[] clients = new SocketChannel[games * 2];
+        SocketChannel[] accepted = new SocketChannel[games * 2];
+
+        try (ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+            long before = liveHeapBytes();
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = SocketChannel.open(serverSocket.getLocalAddress());
+                accepted[i] = serverSocket.accept();
+            }
+            long sockets = liveHeapBytes();
+
+            GameSession[] sessions = new GameSession[games];
+            for (int game = 0; game < games; game++) {
+                ServerEventLoop eventLoop = eventLoops[game % eventLoops.length];
+                PlayerConnection player1 = new PlayerConnection(game * 2L, null, "footprint", accepted[game * 2],
+                        eventLoop, false);
+                PlayerConnection player2 = new PlayerConnection(game * 2L + 1, null, "footprint", accepted[game * 2 + 1],
+                        eventLoop, false);
+                sessions[game] = new GameSession(game, player1, player2, limits);
+                sessions[game].start(() -> { });
+            }
+            // Sessions start on their workers; once every client has its opening frame, all games are idle
+            ByteBuffer frame = ByteBuffer.allocate(16 * 1024);
+            for (SocketChannel client : clients) {
+                readFrame(client, frame);
+            }
+            long bytesPerGame = (liveHeapBytes() - sockets) / games;
+
+            System.out.println(String.format("%-28s %8d games %10d bytes/game %6d threads",
+                    "tcp sockets (both ends)", games, (sockets - before) / games, threadCount()));
+            System.out.println(String.format("%-28s %8d games %10d bytes/game %6d threads",
+                    "tcp session and connections", games, bytesPerGame, threadCount()));
+            return bytesPerGame;
+        } finally {
+            for (SocketChannel client : clients) {
+                if (client != null) {
+                    client.close();
+                }
+            }
+            for (ServerEventLoop eventLoop : eventLoops) {
+                eventLoop.close();
+            }
+        }
+    }
+
+    private static void readFrame(SocketChannel client, ByteBuffer buffer) throws IOException {
+        int lines = 0;
+        while (lines < Constants.FRAME_HEIGHT) {
+            buffer.clear();
+            if (client.read(buffer) < 0) {
+                throw new IOException("Connection closed before the opening frame");
+            }
+            for (int i = 0; i < buffer.position(); i++) {
+                if (buffer.get(i) == '\n') {
+                    lines++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the heap in use once garbage has been collected
+     */
+    private static long liveHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // A few collections, so objects only reachable from finalizers and references are gone too
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static int threadCount() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int games = 100000;
+        int tcpGames = 1000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--games")) {
+                games = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--tcp-games")) {
+                tcpGames = Integer.parseInt(args[i + 1]);
+            }
+        }
+
+        // The event log is never started here, so only the games are measured
+        SessionFootprint footprint = new SessionFootprint();
+        footprint.prime();
+        if (games > 0) {
+            footprint.measureInMemory(games);
+        }
+        if (tcpGames > 0) {
+            footprint.measureTcp(tcpGames);
+        }
+    }
+}
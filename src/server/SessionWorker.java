@@ -0,0 +1,27 @@
+package server;
+
+/**
+ * Runs a game session's work and tells it the time. Servers use a GameShards shard and the
+ * system clock; a Simulation runs every session on one virtual-time scheduler instead.
+ */
+interface SessionWorker {
+    /**
+     * Run a task on this worker
+     */
+    void execute(Runnable task);
+
+    /**
+     * Hand a player's command to its session on this worker
+     */
+    void publish(GameSession session, int playerIndex, int command);
+
+    /**
+     * Run a task on this worker after a delay
+     */
+    void schedule(Runnable task, long delayNanos);
+
+    /**
+     * Get the worker's clock in nanoseconds, only meaningful as a difference
+     */
+    long nanoTime();
+}
@@ -0,0 +1,432 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * A player in a Simulation together with its network link. The server side is an ordinary
+ * PlayerTransport; the client side plays randomly on the simulation's scheduler. Each direction
+ * of the link delivers in order, like TCP: a message takes the link's latency plus jitter, and a
+ * lost packet is resent after a retransmission timeout, holding up everything behind it. Messages
+ * on different links, or in different directions, are freely reordered against each other.
+ * A client that stops reading fills its receive window; like a PlayerConnection, the server then
+ * aborts it once its writes have stalled for too long and tells the session the stream ended.
+ */
+final class SimulatedPlayer implements PlayerTransport {
+    private static final long RETRANSMIT_NANOS = 200_000_000; // the minimum TCP retransmission timeout
+    private static final long RETRY_NANOS = 3_000_000_000L; // a client resends once a command goes unanswered this long
+    private static final int RECEIVE_WINDOW_STATES = 8; // states the client's socket buffers before the server's writes stall
+    private static final long MAX_WRITE_STALL_NANOS = 10_000_000_000L; // as long as PlayerConnection waits for a stalled write
+    private static final long BLIND_COMMAND_NANOS = 500_000_000; // how often a client that stopped reading still sends
+
+    private final long id;
+    private final Simulation simulation;
+    private final SimulationScheduler scheduler;
+    private final Random random;
+
+    // Link
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final double lossChance;
+    private long uplinkFreeAt = 0; // when the last command sent will have arrived
+    private long downlinkFreeAt = 0;
+    private int uplinkGeneration = 0; // bumped by a reset, which loses the commands in flight
+    private int downlinkGeneration = 0; // bumped by an abort, which loses the states in flight
+
+    // Behaviour
+    private final long thinkNanos;
+    private final double invalidChance;
+    private final double passChance;
+    private final double burstChance;
+    private final double disconnectChance;
+    private final double stopReadingChance;
+    private final long patienceNanos; // how long the player waits for an opponent before leaving, -1 for ever
+
+    // Server side
+    private CommandListener listener;
+    private Runnable whenLeftLobby;
+    private final ArrayDeque<Integer> unread = new ArrayDeque<>(); // arrived before the session started
+    private boolean serverClosed = false;
+    private boolean aborted = false;
+    private boolean abortedAsSlow = false;
+    private boolean endOfStream = false; // the session has been told the player left
+    private long stalledSince = -1; // when the receive window filled, -1 while it has room
+    private String rejection;
+
+    // Client side
+    private boolean disconnected = false;
+    private boolean reading = true;
+    private int unreadStates = 0; // arrived after the client stopped reading
+    private boolean closed = false;
+    private GameSnapshot lastState;
+    private int statesReceived = 0;
+    private int commandsSent = 0;
+    private int actions = 0; // bumped by every state, so a stale retry can tell it was answered
+    private SimulatedPlayer opponent; // set once the player is matched
+    private String failure;
+
+    SimulatedPlayer(long id, Simulation simulation, Random random) {
+        this.id = id;
+        this.simulation = simulation;
+        this.scheduler = simulation.getScheduler();
+        this.random = random;
+        this.latencyNanos = (1 + random.nextInt(150)) * 1_000_000L;
+        this.jitterNanos = random.nextInt(50) * 1_000_000L;
+        this.lossChance = random.nextInt(4) == 0 ? random.nextDouble() * 0.1 : 0;
+        this.thinkNanos = random.nextInt(2000) * 1_000_000L;
+        this.invalidChance = random.nextDouble() * 0.1;
+        this.passChance = random.nextDouble() * 0.3;
+        this.burstChance = random.nextDouble() * 0.2;
+        this.disconnectChance = random.nextInt(3) == 0 ? random.nextDouble() * 0.05 : 0;
+        this.stopReadingChance = random.nextInt(8) == 0 ? random.nextDouble() * 0.05 : 0;
+        this.patienceNanos = random.nextInt(4) == 0 ? random.nextInt(10_000) * 1_000_000L : -1;
+    }
+
+    // Server side
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public String getPlayerId() {
+        return null;
+    }
+
+    @Override
+    public void whenLeftLobby(Runnable action) {
+        whenLeftLobby = action;
+        if (endOfStream || aborted) {
+            action.run();
+        }
+    }
+
+    @Override
+    public void start(CommandListener listener) {
+        this.listener = listener;
+        // Bytes that arrived while the player waited in the lobby are read now, in order
+        Integer command;
+        while ((command = unread.poll()) != null) {
+            deliver(command);
+        }
+        if (aborted) {
+            // Dropped while waiting for an opponent
+            scheduler.execute(this::streamEnded);
+        }
+    }
+
+    @Override
+    public void sendState(GameState state, boolean forPlayer1) {
+        if (serverClosed) {
+            return;
+        }
+        if (unreadStates >= RECEIVE_WINDOW_STATES) {
+            // The socket is full, so the frame waits and is superseded; a write stalled too long drops the client
+            if (stalledSince < 0) {
+                stalledSince = scheduler.nanoTime();
+            } else if (scheduler.nanoTime() - stalledSince > MAX_WRITE_STALL_NANOS) {
+                simulation.trace(this, "is dropped as a slow consumer");
+                abortedAsSlow = true;
+                abort();
+            }
+            return;
+        }
+        GameSnapshot snapshot = new GameSnapshot(state, forPlayer1);
+        downlink(() -> stateReceived(snapshot));
+    }
+
+    @Override
+    public void reject(String reason) {
+        rejection = reason;
+        close();
+    }
+
+    @Override
+    public void close() {
+        if (serverClosed) {
+            return;
+        }
+        serverClosed = true;
+        // The close follows every state already on the wire
+        downlink(this::closeReceived);
+    }
+
+    /**
+     * Close the socket at once, like an event loop shutting down, losing whatever is in flight.
+     * The session hears the end of the stream afterwards, as from the loop thread.
+     */
+    void abort() {
+        if (serverClosed) {
+            return;
+        }
+        serverClosed = true;
+        aborted = true;
+        downlinkGeneration++;
+        downlinkFreeAt = scheduler.nanoTime();
+        downlink(this::closeReceived);
+        if (listener != null) {
+            scheduler.execute(this::streamEnded);
+        } else {
+            scheduler.execute(this::leftLobby);
+        }
+    }
+
+    private void leftLobby() {
+        if (listener == null && whenLeftLobby != null) {
+            Runnable action = whenLeftLobby;
+            whenLeftLobby = null;
+            action.run();
+        }
+    }
+
+    private void streamEnded() {
+        deliver(CommandDecoder.END_OF_STREAM);
+    }
+
+    private void commandArrived(int command, int generation) {
+        if (generation != uplinkGeneration || serverClosed) {
+            // Lost in a reset, or sent to a socket the server has closed
+            return;
+        }
+        if (listener == null) {
+            unread.add(command);
+            if (command == CommandDecoder.END_OF_STREAM) {
+                leftLobby();
+            }
+        } else {
+            deliver(command);
+        }
+    }
+
+    /**
+     * Hand a command to the session; nothing follows the end of the stream
+     */
+    private void deliver(int command) {
+        if (endOfStream) {
+            return;
+        }
+        endOfStream = command == CommandDecoder.END_OF_STREAM;
+        listener.onCommand(command);
+    }
+
+    // Client side
+
+    /**
+     * Connect to the server after a random delay
+     */
+    void connect() {
+        scheduler.schedule(() -> {
+            simulation.trace(this, "connects");
+            simulation.admit(this);
+            if (patienceNanos >= 0) {
+                scheduler.schedule(this::giveUp, patienceNanos);
+            }
+        }, random.nextInt(3000) * 1_000_000L);
+    }
+
+    /**
+     * Leave if no game has started yet
+     */
+    private void giveUp() {
+        if (statesReceived == 0 && !disconnected && !closed) {
+            simulation.trace(this, "gives up waiting");
+            disconnect(random.nextBoolean());
+        }
+    }
+
+    private void stateReceived(GameSnapshot state) {
+        if (disconnected) {
+            return;
+        }
+        if (!reading) {
+            unreadStates++;
+            return;
+        }
+        checkProgress(state);
+        lastState = state;
+        statesReceived++;
+        actions++;
+        simulation.trace(this, "receives round " + state.getRoundNumber() + " score " + state.getMyScore()
+                + "-" + state.getOpponentScore() + (state.isMyTurn() ? " my turn" : "")
+                + (state.isGameOver() ? " game over" : ""));
+
+        if (!state.isGameOver() && random.nextDouble() < stopReadingChance) {
+            stopReading();
+        } else if (state.isMyTurn() && !state.isGameOver()) {
+            int answering = actions;
+            scheduler.schedule(() -> act(answering), (long) (random.nextDouble() * thinkNanos));
+        }
+    }
+
+    /**
+     * Stop reading the socket, like a client whose UI hung, but keep sending commands from the last state seen
+     */
+    private void stopReading() {
+        simulation.trace(this, "stops reading");
+        reading = false;
+        scheduler.schedule(this::sendBlind, BLIND_COMMAND_NANOS);
+    }
+
+    private void sendBlind() {
+        if (disconnected || closed) {
+            return;
+        }
+        send(chooseCommand());
+        scheduler.schedule(this::sendBlind, BLIND_COMMAND_NANOS);
+    }
+
+    /**
+     * The stream is in order, so neither the round nor either score may go back
+     */
+    private void checkProgress(GameSnapshot state) {
+        if (lastState == null) {
+            return;
+        }
+        if (state.getRoundNumber() < lastState.getRoundNumber()) {
+            fail("round went back from " + lastState.getRoundNumber() + " to " + state.getRoundNumber());
+        } else if (state.getMyScore() < lastState.getMyScore() || state.getOpponentScore() < lastState.getOpponentScore()) {
+            fail("score went back from " + lastState.getMyScore() + "-" + lastState.getOpponentScore()
+                    + " to " + state.getMyScore() + "-" + state.getOpponentScore());
+        } else if (lastState.isGameOver() && !state.isGameOver()) {
+            fail("game restarted after it was over");
+        }
+    }
+
+    private void closeReceived() {
+        closed = true;
+        simulation.trace(this, rejection != null ? "rejected: " + rejection : "closed");
+        simulation.playerClosed(this);
+    }
+
+    /**
+     * Take a turn: usually one command, sometimes several at once, sometimes leave instead
+     */
+    private void act(int answering) {
+        if (disconnected || closed || answering != actions) {
+            return;
+        }
+        if (random.nextDouble() < disconnectChance) {
+            disconnect(random.nextBoolean());
+            return;
+        }
+
+        int commands = random.nextDouble() < burstChance ? 2 + random.nextInt(3) : 1;
+        for (int i = 0; i < commands; i++) {
+            send(chooseCommand());
+        }
+
+        // Commands over the rate limit may be dropped, so an unanswered one is sent again
+        scheduler.schedule(() -> act(answering), RETRY_NANOS);
+    }
+
+    private int chooseCommand() {
+        if (random.nextDouble() < invalidChance) {
+            return random.nextBoolean() ? CommandDecoder.INVALID
+                    : CommandDecoder.move(random.nextInt(6), random.nextInt(6)); // probably not a legal move
+        }
+        if (random.nextDouble() < passChance) {
+            return CommandDecoder.PASS;
+        }
+
+        // A legal attack if one exists, otherwise a pass
+        int offset = random.nextInt(36);
+        for (int i = 0; i < 36; i++) {
+            int from = (offset + i) / 6 % 6;
+            int to = (offset + i) % 6;
+            if (lastState.getMyCard(from) != null && lastState.getOpponentCard(to) != null
+                    && lastState.getMyCard(from).canDefeat(lastState.getOpponentCard(to))) {
+                return CommandDecoder.move(from, to);
+            }
+        }
+        return CommandDecoder.PASS;
+    }
+
+    private void send(int command) {
+        commandsSent++;
+        int generation = uplinkGeneration;
+        uplink(() -> commandArrived(command, generation));
+    }
+
+    /**
+     * Leave the game: a graceful close arrives after the commands in flight, a reset loses them
+     */
+    private void disconnect(boolean reset) {
+        simulation.trace(this, reset ? "resets the connection" : "disconnects");
+        disconnected = true;
+        if (reset) {
+            uplinkGeneration++;
+            uplinkFreeAt = scheduler.nanoTime();
+        }
+        int generation = uplinkGeneration;
+        uplink(() -> commandArrived(CommandDecoder.END_OF_STREAM, generation));
+    }
+
+    // Link
+
+    private void uplink(Runnable delivery) {
+        uplinkFreeAt = Math.max(uplinkFreeAt, scheduler.nanoTime() + transitNanos());
+        scheduler.at(uplinkFreeAt, delivery);
+    }
+
+    private void downlink(Runnable delivery) {
+        downlinkFreeAt = Math.max(downlinkFreeAt, scheduler.nanoTime() + transitNanos());
+        int generation = downlinkGeneration;
+        scheduler.at(downlinkFreeAt, () -> {
+            if (generation == downlinkGeneration) {
+                delivery.run();
+            }
+        });
+    }
+
+    private long transitNanos() {
+        long transit = latencyNanos + (jitterNanos > 0 ? (long) (random.nextDouble() * jitterNanos) : 0);
+        while (random.nextDouble() < lossChance) {
+            transit += RETRANSMIT_NANOS;
+        }
+        return transit;
+    }
+
+    private void fail(String reason) {
+        if (failure == null) {
+            failure = "player " + id + ": " + reason;
+        }
+    }
+
+    // Results
+
+    void matchedWith(SimulatedPlayer opponent) {
+        this.opponent = opponent;
+    }
+
+    /**
+     * Check what the player saw once the run is over
+     * @return a description of what went wrong, or null
+     */
+    String check() {
+        if (failure != null) {
+            return failure;
+        }
+        if (!closed) {
+            return "player " + id + ": connection never closed" + (opponent != null ? " in a game" : " in the lobby");
+        }
+        // A client that stopped reading never sees the game-over state, even if it was sent
+        if (opponent != null && rejection == null && reading && !disconnected && !opponent.disconnected
+                && !abortedAsSlow && !opponent.abortedAsSlow && !simulation.isStopped() && (lastState == null || !lastState.isGameOver())) {
+            return "player " + id + ": game closed before it was over";
+        }
+        return null;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    int getStatesReceived() {
+        return statesReceived;
+    }
+
+    int getCommandsSent() {
+        return commandsSent;
+    }
+}
@@ -0,0 +1,217 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs the server, its sessions and a handful of randomly behaving players on one thread
+ * under a virtual clock, so timing-dependent behaviour can be explored and replayed. Everything
+ * in a run comes from its seed: the server limits, when players connect, their network links
+ * (latency, jitter, packet loss, resets), how they play, when they leave the lobby, disconnect
+ * or stop reading, and whether the server is shut down mid-game. Players reach the server
+ * through SimulatedPlayer instead of sockets, and the matchmaker is ticked by the scheduler
+ * instead of its own thread.
+ *
+ * After each run the players and the server are checked: every connection must have been
+ * closed, a game nobody left must have reached game over, each player's view of the game must
+ * only move forward, no task may have thrown, and the server must have released every session
+ * and connection, including those it dropped as slow consumers. Only after a shutdown may
+ * players still be counted, since nothing matches or times out the lobby any more. A failing
+ * seed is printed and replays exactly with --replay, which prints the run's trace.
+ *
+ * Usage: Simulation [--runs n] [--seed first] | Simulation --replay seed
+ */
+public class Simulation {
+    private static final long RUN_LIMIT_NANOS = 30 * 60 * 1_000_000_000L;
+    private static final long MATCH_TICK_NANOS = 250_000_000; // as often as the Matchmaker's own thread ticks
+
+    private final Random random;
+    private final SimulationScheduler scheduler = new SimulationScheduler();
+    private final ServerLimits limits;
+    private final CoExistenceServer server;
+    private final List<SimulatedPlayer> players = new ArrayList<>();
+    private final StringBuilder trace; // null unless the run is being replayed
+    private boolean stopped = false;
+    private int openPlayers = 0;
+
+    /**
+     * @param traced keep a trace of every player's events, for a replay
+     */
+    public Simulation(long seed, boolean traced) {
+        this.random = new Random(seed);
+        this.trace = traced ? new StringBuilder() : null;
+        this.limits = new ServerLimits()
+                .setMaxConnections(4 + random.nextInt(20))
+                .setMaxLobbyWaitMs(1000 + random.nextInt(10000))
+                .setCommandRate(1 + random.nextInt(10), 1 + random.nextInt(4))
+                .setDelayExcessCommands(random.nextBoolean())
+                .setGameOverLingerMs(random.nextInt(3) * 1000);
+
+        // The server's own code decides everything; only where sessions run and its clock are replaced
+        this.server = new CoExistenceServer(0, limits) {
+            @Override
+            GameSession createSession(long sessionId, PlayerTransport player1, PlayerTransport player2) {
+                ((SimulatedPlayer) player1).matchedWith((SimulatedPlayer) player2);
+                ((SimulatedPlayer) player2).matchedWith((SimulatedPlayer) player1);
+                trace("session " + sessionId + ": player " + player1.getId() + " vs player " + player2.getId());
+                return new GameSession(sessionId, player1, player2, limits, scheduler, new Random(random.nextLong()));
+            }
+
+            @Override
+            long currentTimeMillis() {
+                return scheduler.currentTimeMillis();
+            }
+        };
+    }
+
+    /**
+     * Play the run to its end
+     * @return a description of the first problem found, or null if the run passed
+     */
+    public String run() {
+        int count = 2 + random.nextInt(11);
+        for (int i = 0; i < count; i++) {
+            SimulatedPlayer player = new SimulatedPlayer(i + 1, this, new Random(random.nextLong()));
+            players.add(player);
+            openPlayers++;
+            player.connect();
+        }
+        scheduler.schedule(this::matchTick, MATCH_TICK_NANOS);
+        if (random.nextInt(5) == 0) {
+            scheduler.schedule(this::shutDown, random.nextInt(60_000) * 1_000_000L);
+        }
+
+        boolean finished = scheduler.run(RUN_LIMIT_NANOS);
+        if (scheduler.getFailure() != null) {
+            RuntimeException failure = scheduler.getFailure();
+            StackTraceElement[] stack = failure.getStackTrace();
+            return "task failed: " + failure + (stack.length > 0 ? " at " + stack[0] : "");
+        }
+        if (!finished) {
+            return "still running after " + RUN_LIMIT_NANOS / 60_000_000_000L + " minutes of virtual time";
+        }
+        for (SimulatedPlayer player : players) {
+            String problem = player.check();
+            if (problem != null) {
+                return problem;
+            }
+        }
+        if (!stopped && (server.getActiveSessions() != 0 || server.getOpenConnections() != 0
+                || server.getWaitingPlayers() != 0)) {
+            return "server still counts " + server.getActiveSessions() + " sessions, "
+                    + server.getOpenConnections() + " connections and " + server.getWaitingPlayers() + " waiting players";
+        }
+        return null;
+    }
+
+    SimulationScheduler getScheduler() {
+        return scheduler;
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Let a player in, as the accept loop and handshake would, and match it straight away
+     */
+    void admit(SimulatedPlayer player) {
+        if (stopped) {
+            // Nothing is listening any more
+            player.abort();
+            return;
+        }
+        server.admit(player, "simulated player");
+        server.matchWaitingPlayers();
+    }
+
+    void playerClosed(SimulatedPlayer player) {
+        openPlayers--;
+    }
+
+    private void matchTick() {
+        if (stopped || openPlayers == 0) {
+            return;
+        }
+        server.matchWaitingPlayers();
+        scheduler.schedule(this::matchTick, MATCH_TICK_NANOS);
+    }
+
+    /**
+     * Stop the server as Main would. Its event loops close every connection, whatever its session is doing.
+     */
+    private void shutDown() {
+        trace("server stops");
+        stopped = true;
+        server.stop();
+        for (SimulatedPlayer player : players) {
+            player.abort();
+        }
+    }
+
+    void trace(SimulatedPlayer player, String event) {
+        if (trace != null) {
+            trace("player " + player.getId() + " " + event);
+        }
+    }
+
+    private void trace(String event) {
+        if (trace != null) {
+            trace.append(String.format("%10.3f  %s%n", scheduler.nanoTime() / 1_000_000.0, event));
+        }
+    }
+
+    public String getTrace() {
+        return trace != null ? trace.toString() : "";
+    }
+
+    public long getTasksRun() {
+        return scheduler.getTasksRun();
+    }
+
+    public long getGamesFinished() {
+        return server.getAnalytics().snapshot().getGamesFinished();
+    }
+
+    public static void main(String[] args) {
+        int runs = 1000;
+        long firstSeed = System.nanoTime();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--runs")) {
+                runs = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--seed")) {
+                firstSeed = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("--replay")) {
+                long seed = Long.parseLong(args[i + 1]);
+                Simulation simulation = new Simulation(seed, true);
+                String problem = simulation.run();
+                System.out.print(simulation.getTrace());
+                System.out.println("Seed " + seed + ": " + (problem != null ? problem : "passed"));
+                System.exit(problem != null ? 1 : 0);
+            }
+        }
+
+        System.out.println("Simulating " + runs + " runs from seed " + firstSeed);
+        long start = System.nanoTime();
+        int failed = 0;
+        long tasks = 0;
+        long games = 0;
+        for (int i = 0; i < runs; i++) {
+            long seed = firstSeed + i;
+            Simulation simulation = new Simulation(seed, false);
+            String problem = simulation.run();
+            tasks += simulation.getTasksRun();
+            games += simulation.getGamesFinished();
+            if (problem != null) {
+                failed++;
+                System.out.println("Seed " + seed + " failed: " + problem);
+            }
+        }
+
+        long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        System.out.printf("%d runs, %d failed, %d games, %d tasks in %d ms (%d runs per minute)%n",
+                runs, failed, games, tasks, elapsedMs, runs * 60_000L / elapsedMs);
+        System.exit(failed > 0 ? 1 : 0);
+    }
+}
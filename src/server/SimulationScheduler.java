@@ -0,0 +1,96 @@
+package server;
+
+import java.util.PriorityQueue;
+
+/**
+ * Single-threaded scheduler with a virtual clock, on which a Simulation runs the server,
+ * every session and every simulated player. Tasks run in order of their due time and, at
+ * the same time, in the order they were scheduled, so a run depends only on its seed.
+ * Time only moves when the next task is due, so waits cost nothing.
+ */
+final class SimulationScheduler implements SessionWorker {
+    private final PriorityQueue<Task> queue = new PriorityQueue<>();
+    private long now = 0;
+    private long sequence = 0;
+    private long tasksRun = 0;
+    private RuntimeException failure; // the first task that threw, which ends the run
+
+    @Override
+    public void execute(Runnable task) {
+        at(now, task);
+    }
+
+    @Override
+    public void publish(GameSession session, int playerIndex, int command) {
+        at(now, () -> session.commandReceived(playerIndex, command));
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayNanos) {
+        at(now + Math.max(0, delayNanos), task);
+    }
+
+    /**
+     * Run a task at a time on the virtual clock, or now if that has passed
+     */
+    void at(long time, Runnable task) {
+        queue.add(new Task(Math.max(now, time), sequence++, task));
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    long currentTimeMillis() {
+        return now / 1_000_000;
+    }
+
+    /**
+     * Run tasks until none are left, one throws, or the clock would pass a limit
+     * @return true if every task ran
+     */
+    boolean run(long limitNanos) {
+        Task task;
+        while ((task = queue.peek()) != null && task.time <= limitNanos) {
+            queue.poll();
+            now = task.time;
+            tasksRun++;
+            try {
+                task.runnable.run();
+            } catch (RuntimeException e) {
+                failure = e;
+                return false;
+            }
+        }
+        return queue.isEmpty();
+    }
+
+    long getTasksRun() {
+        return tasksRun;
+    }
+
+    RuntimeException getFailure() {
+        return failure;
+    }
+
+    private static final class Task implements Comparable<Task> {
+        final long time;
+        final long sequence;
+        final Runnable runnable;
+
+        Task(long time, long sequence, Runnable runnable) {
+            this.time = time;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (time != other.time) {
+                return Long.compare(time, other.time);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread.
+ * The consumer can block in take(); the producer only wakes it when it is actually parked.
+ */
+public class SpscQueue<E> {
+    // Polls before a waiting consumer parks, since the next message usually follows quickly
+    private static final int SPINS = 100;
+
+    private final Object[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next slot to read, written by the consumer
+    private final AtomicLong tail = new AtomicLong(); // next slot to write, written by the producer
+    private volatile Thread waiter;
+    private volatile boolean closed = false;
+
+    /**
+     * @param capacity maximum number of queued elements, rounded up to a power of two
+     */
+    public SpscQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Add an element without blocking
+     * @return false if the queue is full or closed
+     */
+    public boolean offer(E element) {
+        if (closed) {
+            return false;
+        }
+        long t = tail.get();
+        if (t - head.get() == slots.length) {
+            return false;
+        }
+        slots[(int) (t & mask)] = element;
+        // A full volatile write, so a consumer about to park either sees it or is seen as the waiter below
+        tail.set(t + 1);
+
+        Thread parked = waiter;
+        if (parked != null) {
+            LockSupport.unpark(parked);
+        }
+        return true;
+    }
+
+    /**
+     * Take the next element without blocking
+     * @return the element, or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int index = (int) (h & mask);
+        E element = (E) slots[index];
+        slots[index] = null;
+        head.lazySet(h + 1);
+        return element;
+    }
+
+    /**
+     * Take the next element, waiting until one arrives
+     * @return the element, or null once the queue is closed and empty
+     */
+    public E take() throws InterruptedException {
+        for (int i = 0; i < SPINS; i++) {
+            E element = poll();
+            if (element != null) {
+                return element;
+            }
+            Thread.onSpinWait();
+        }
+
+        try {
+            while (true) {
+                waiter = Thread.currentThread();
+                E element = poll();
+                if (element != null) {
+                    return element;
+                }
+                if (closed) {
+                    // Elements offered before the close are still delivered
+                    return poll();
+                }
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waiter = null;
+        }
+    }
+
+    /**
+     * Stop accepting elements and wake a waiting consumer
+     */
+    public void close() {
+        closed = true;
+        Thread parked = waiter;
+        if (parked != null) {
+            LockSupport.unpark(parked);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,66 @@
+package server;
+
+/**
+ * Token bucket rate limiter. Tokens refill continuously at a fixed rate up to a
+ * maximum burst. Not thread-safe; each connection owns its own bucket.
+ */
+public class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double tokensPerSecond, int capacity) {
+        this(tokensPerSecond, capacity, System.nanoTime());
+    }
+
+    /**
+     * @param now the time on the clock later passed to tryAcquire and nanosUntilAvailable
+     */
+    public TokenBucket(double tokensPerSecond, int capacity, long now) {
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000.0;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Take a token if one is available
+     * @return true if the token was taken
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * Take a token if one is available, at a time from the bucket's own clock
+     */
+    public boolean tryAcquire(long now) {
+        refill(now);
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get how long until the next token is available
+     */
+    public long nanosUntilAvailable() {
+        return nanosUntilAvailable(System.nanoTime());
+    }
+
+    public long nanosUntilAvailable(long now) {
+        refill(now);
+        if (tokens >= 1.0) {
+            return 0;
+        }
+        return (long) Math.ceil((1.0 - tokens) / tokensPerNano);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,228 @@
+package server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the stages of a turn, so a recording shows where turn
+ * latency goes: the command decoded on an I/O thread, the rules applied and the frames
+ * broadcast on the session's worker, each frame rendered, and each write finished.
+ * Every emitter first checks its event type's cached enabled flag, so with no recording
+ * running a stage costs one volatile read and no allocation.
+ *
+ * Session events carry the session id and the player's connection id; frame events carry
+ * the connection id, which the session events map to a session and player.
+ */
+final class TurnEvents {
+    private static final EventType COMMAND_RECEIVED = EventType.getEventType(CommandReceived.class);
+    private static final EventType RULE_EVALUATION = EventType.getEventType(RuleEvaluation.class);
+    private static final EventType FRAMES_SENT = EventType.getEventType(FramesSent.class);
+    private static final EventType FRAME_RENDER = EventType.getEventType(FrameRender.class);
+    private static final EventType FRAME_WRITE = EventType.getEventType(FrameWrite.class);
+
+    private TurnEvents() {
+    }
+
+    /**
+     * Record a command handed from an I/O thread to its session
+     */
+    static void commandReceived(long sessionId, int player, long connectionId, int command) {
+        if (!COMMAND_RECEIVED.isEnabled()) {
+            return;
+        }
+        CommandReceived event = new CommandReceived();
+        event.sessionId = sessionId;
+        event.player = player;
+        event.connectionId = connectionId;
+        event.commandType = commandType(command);
+        event.commit();
+    }
+
+    /**
+     * Render a frame, recording how long it took when a recording is running
+     */
+    static String renderFrame(GameState state, boolean forPlayer1, long connectionId) {
+        if (!FRAME_RENDER.isEnabled()) {
+            return MessageFormatter.generateMessageFrame(state, forPlayer1);
+        }
+        FrameRender event = new FrameRender();
+        event.begin();
+        String frame = MessageFormatter.generateMessageFrame(state, forPlayer1);
+        event.end();
+        event.connectionId = connectionId;
+        event.characters = frame.length();
+        event.commit();
+        return frame;
+    }
+
+    /**
+     * Start timing a command's rule evaluation
+     * @return the event, or null when no recording wants it
+     */
+    static RuleEvaluation beginRuleEvaluation() {
+        if (!RULE_EVALUATION.isEnabled()) {
+            return null;
+        }
+        RuleEvaluation event = new RuleEvaluation();
+        event.begin();
+        return event;
+    }
+
+    static void endRuleEvaluation(RuleEvaluation event, long sessionId, int player, long connectionId, int command) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        event.sessionId = sessionId;
+        event.player = player;
+        event.connectionId = connectionId;
+        event.commandType = commandType(command);
+        event.commit();
+    }
+
+    /**
+     * Start timing a state broadcast to both players
+     * @return the event, or null when no recording wants it
+     */
+    static FramesSent beginFramesSent() {
+        if (!FRAMES_SENT.isEnabled()) {
+            return null;
+        }
+        FramesSent event = new FramesSent();
+        event.begin();
+        return event;
+    }
+
+    static void endFramesSent(FramesSent event, long sessionId, int player) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        event.sessionId = sessionId;
+        event.player = player;
+        event.commit();
+    }
+
+    /**
+     * Start timing a socket write that may take several attempts
+     * @return the event, or null when no recording wants it
+     */
+    static FrameWrite beginFrameWrite(long connectionId) {
+        if (!FRAME_WRITE.isEnabled()) {
+            return null;
+        }
+        FrameWrite event = new FrameWrite();
+        event.connectionId = connectionId;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Count a frame into a write being timed
+     */
+    static void frameWritten(FrameWrite event, long bytes) {
+        if (event != null) {
+            event.bytes += bytes;
+            event.frames++;
+        }
+    }
+
+    static void endFrameWrite(FrameWrite event) {
+        if (event != null) {
+            event.end();
+            event.commit();
+        }
+    }
+
+    private static String commandType(int command) {
+        switch (CommandDecoder.type(command)) {
+            case CommandDecoder.PASS:
+                return "PASS";
+            case CommandDecoder.MOVE:
+                return "MOVE";
+            case CommandDecoder.END_OF_STREAM:
+                return "DISCONNECT";
+            default:
+                return "INVALID";
+        }
+    }
+
+    @Name("coexistence.CommandReceived")
+    @Label("Command Received")
+    @Category({"CoExistence", "Turn"})
+    @Description("A decoded command handed from an I/O thread to its session's worker")
+    @StackTrace(false)
+    static final class CommandReceived extends Event {
+        @Label("Session Id")
+        long sessionId;
+        @Label("Player")
+        @Description("0 for player 1, 1 for player 2")
+        int player;
+        @Label("Connection Id")
+        long connectionId;
+        @Label("Command Type")
+        String commandType;
+    }
+
+    @Name("coexistence.RuleEvaluation")
+    @Label("Rule Evaluation")
+    @Category({"CoExistence", "Turn"})
+    @Description("A command applied to the game state on the session's worker")
+    @StackTrace(false)
+    static final class RuleEvaluation extends Event {
+        @Label("Session Id")
+        long sessionId;
+        @Label("Player")
+        int player;
+        @Label("Connection Id")
+        long connectionId;
+        @Label("Command Type")
+        String commandType;
+    }
+
+    @Name("coexistence.FramesSent")
+    @Label("Frames Sent")
+    @Category({"CoExistence", "Turn"})
+    @Description("The new state rendered and handed to both players' connections; frame renders and writes nest inside")
+    @StackTrace(false)
+    static final class FramesSent extends Event {
+        @Label("Session Id")
+        long sessionId;
+        @Label("Player")
+        @Description("The player whose command produced the state, or -1 for the opening state")
+        int player;
+    }
+
+    @Name("coexistence.FrameRender")
+    @Label("Frame Render")
+    @Category({"CoExistence", "Turn"})
+    @Description("A game state rendered as a text frame")
+    @StackTrace(false)
+    static final class FrameRender extends Event {
+        @Label("Connection Id")
+        long connectionId;
+        @Label("Characters")
+        int characters;
+    }
+
+    @Name("coexistence.FrameWrite")
+    @Label("Frame Write")
+    @Category({"CoExistence", "Turn"})
+    @Description("Bytes written to a player's socket, from the first write attempt until the last byte was accepted")
+    @StackTrace(false)
+    static final class FrameWrite extends Event {
+        @Label("Connection Id")
+        long connectionId;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+        @Label("Frames")
+        int frames;
+    }
+}
@@ -0,0 +1,263 @@
+package server;
+
+import common.Constants;
+import common.FrameCompression;
+import common.Handshake;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Plays synthetic games in-process before the server opens its port, so frame rendering,
+ * command decoding and frame compression are compiled before the first real player connects.
+ * Games run through real sessions over loopback sockets, against bare socket players that
+ * send random moves and passes on their turn.
+ */
+public class Warmup {
+    // Games played at the same time, so the server's event loop and workers overlap like in production
+    private static final int PARALLEL_GAMES = 8;
+    // The line of a frame holding our turn indicator, and its column; 'v' means it is our turn
+    private static final int TURN_LINE = 5;
+    private static final int TURN_COLUMN = 38;
+    // Latency is steady once a window of games has a median within this fraction of the final latency
+    private static final int STEADY_WINDOW = 32;
+    private static final double STEADY_TOLERANCE = 0.25;
+    private static final long BATCH_TIMEOUT_SECONDS = 30;
+
+    private final int games;
+    private final long[] commandLatencyNanos; // mean round-trip per command, per game
+    private long elapsedNanos;
+
+    public Warmup(int games) {
+        this.games = games;
+        this.commandLatencyNanos = new long[games];
+    }
+
+    /**
+     * Play all warm-up games
+     */
+    public void run() throws IOException, InterruptedException {
+        // No rate limit and no lingering after game over, which would only slow the warm-up down
+        ServerLimits limits = new ServerLimits()
+                .setCommandRate(Double.MAX_VALUE, Integer.MAX_VALUE)
+                .setGameOverLingerMs(0);
+        ExecutorService players = Executors.newFixedThreadPool(PARALLEL_GAMES * 2, task -> {
+            Thread thread = new Thread(task, "warmup-player");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ServerEventLoop serverLoop = new ServerEventLoop("warmup-server");
+        long start = System.nanoTime();
+
+        try (ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), PARALLEL_GAMES * 2);
+            for (int first = 0; first < games; first += PARALLEL_GAMES) {
+                int count = Math.min(PARALLEL_GAMES, games - first);
+                CountDownLatch finished = new CountDownLatch(count * 2);
+
+                for (int game = first; game < first + count; game++) {
+                    // Alternate plain and compressed games so both encodings are warmed up
+                    boolean compressed = (game % 2) == 1;
+                    PlayerConnection player1 = connect(serverSocket, players, serverLoop, game, compressed, finished);
+                    PlayerConnection player2 = connect(serverSocket, players, serverLoop, game, compressed, finished);
+                    new GameSession(game, player1, player2, limits).start(() -> { });
+                }
+
+                if (!finished.await(BATCH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    throw new IOException("Warm-up games did not finish");
+                }
+            }
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+            players.shutdownNow();
+            serverLoop.close();
+        }
+    }
+
+    /**
+     * Connect a warm-up player and accept its connection the way the server does
+     */
+    private PlayerConnection connect(ServerSocketChannel serverSocket, ExecutorService players,
+                                     ServerEventLoop serverLoop, int game, boolean compressed,
+                                     CountDownLatch finished) throws IOException {
+        InetSocketAddress address = (InetSocketAddress) serverSocket.getLocalAddress();
+        Socket socket = new Socket(address.getAddress(), address.getPort());
+        socket.setTcpNoDelay(true);
+        Handshake request = new Handshake(null, FrameCompression.FORMAT);
+        socket.getOutputStream().write((request.toLine() + "\n").getBytes(StandardCharsets.US_ASCII));
+        players.execute(new WarmupPlayer(game, socket, finished));
+
+        SocketChannel channel = serverSocket.accept();
+        Handshake hello = Handshake.read(channel.socket(), 1000);
+        if (hello == null) {
+            throw new IOException("Warm-up client sent no handshake");
+        }
+        Handshake accepted = new Handshake(null, compressed ? FrameCompression.FORMAT : null);
+        channel.socket().getOutputStream().write((accepted.toLine() + "\n").getBytes(StandardCharsets.US_ASCII));
+        return new PlayerConnection(game, null, "warm-up", channel, serverLoop, compressed);
+    }
+
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    /**
+     * Find the first game from which command latency is within the tolerance of the
+     * steady-state latency, measured over the second half of the warm-up
+     * @return the number of games played before steady state
+     */
+    public int getSteadyStateGame() {
+        double steady = getSteadyLatencyMicros();
+        for (int from = 0; from + STEADY_WINDOW <= games; from += PARALLEL_GAMES) {
+            if (medianMicros(from, from + STEADY_WINDOW) <= steady * (1 + STEADY_TOLERANCE)) {
+                return from;
+            }
+        }
+        return games;
+    }
+
+    /**
+     * Get the median command latency over the second half of the warm-up, in microseconds
+     */
+    public double getSteadyLatencyMicros() {
+        return medianMicros(games / 2, games);
+    }
+
+    private double medianMicros(int fromGame, int toGame) {
+        long[] latencies = Arrays.copyOfRange(commandLatencyNanos, fromGame, toGame);
+        Arrays.sort(latencies);
+        return latencies[latencies.length / 2] / 1000.0;
+    }
+
+    public String formatReport() {
+        if (games < STEADY_WINDOW) {
+            return String.format("Warm-up played %d games in %d ms", games, getElapsedMillis());
+        }
+        return String.format("Warm-up played %d games in %d ms; steady state after %d games"
+                        + " (%.0f us per command, first games %.0f us)",
+                games, getElapsedMillis(), getSteadyStateGame(), getSteadyLatencyMicros(),
+                medianMicros(0, STEADY_WINDOW));
+    }
+
+    /**
+     * Plays random moves and passes over a blocking socket, and times each command's round-trip
+     */
+    private class WarmupPlayer implements Runnable {
+        private final int game;
+        private final Socket socket;
+        private final CountDownLatch finished;
+        private final Random random;
+        private long sentAt = 0;
+        private long totalNanos = 0;
+        private int commands = 0;
+
+        WarmupPlayer(int game, Socket socket, CountDownLatch finished) {
+            this.game = game;
+            this.socket = socket;
+            this.finished = finished;
+            this.random = new Random(game);
+        }
+
+        @Override
+        public void run() {
+            Inflater decompressor = null;
+            try {
+                InputStream input = new BufferedInputStream(socket.getInputStream());
+                OutputStream output = socket.getOutputStream();
+                Handshake reply = Handshake.parse(readLine(input));
+                if (reply != null && FrameCompression.FORMAT.equals(reply.getCompression())) {
+                    decompressor = FrameCompression.newDecompressor();
+                    input = new InflaterInputStream(input, decompressor);
+                }
+
+                // The server closes the connection once the game is over
+                int frameLine = -1; // -1 while waiting for the start of a frame
+                boolean myTurn = false;
+                String line;
+                while ((line = readLine(input)) != null) {
+                    if (line.startsWith("/")) {
+                        frameLine = 0;
+                    }
+                    if (frameLine < 0) {
+                        continue;
+                    }
+                    if (frameLine == TURN_LINE) {
+                        myTurn = line.length() > TURN_COLUMN && line.charAt(TURN_COLUMN) == 'v';
+                    }
+                    if (++frameLine == Constants.FRAME_HEIGHT) {
+                        frameLine = -1;
+                        frameReceived(myTurn, output);
+                    }
+                }
+            } catch (IOException e) {
+                // The game ends for this player either way
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+                if (decompressor != null) {
+                    decompressor.end();
+                }
+                // Both players of a game record; the later one wins, which is fine for a median
+                if (commands > 0) {
+                    commandLatencyNanos[game] = totalNanos / commands;
+                }
+                finished.countDown();
+            }
+        }
+
+        private void frameReceived(boolean myTurn, OutputStream output) throws IOException {
+            long now = System.nanoTime();
+            if (sentAt != 0) {
+                totalNanos += now - sentAt;
+                commands++;
+                sentAt = 0;
+            }
+            if (!myTurn) {
+                return;
+            }
+
+            // Random attacks are often invalid, which warms up the rejection path too
+            String command = random.nextInt(4) == 0 ? "PS"
+                    : "" + (char) ('A' + random.nextInt(6)) + (char) ('A' + random.nextInt(6));
+            output.write((command + "\n").getBytes(StandardCharsets.US_ASCII));
+            sentAt = now;
+        }
+    }
+
+    /**
+     * Read a line without its terminator
+     * @return the line, or null at the end of the stream
+     */
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder(Constants.FRAME_WIDTH);
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b < 0) {
+                return line.length() > 0 ? line.toString() : null;
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+}